@@ -0,0 +1,321 @@
+package regiontypeinference;
+
+import regiontypeinference.interproc.InterProcTransAnalysis;
+import regiontypeinference.interproc.SummaryStore;
+import regiontypeinference.policy.ABCPolicy;
+import regiontypeinference.policy.Policy;
+import regiontypeinference.region.Region;
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethodRef;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Long-running analysis server that keeps the Soot Scene of a class path loaded.
+ * <p>
+ * It listens on a local TCP port and reads one request per line; each request is answered
+ * by one line containing a JSON object. The requests are
+ * <ul>
+ * <li>{@code analyze <policy> <k> <class> <method name or sub-signature>}, answered by the
+ * analysis result, with {@code "status": "ok"}, </li>
+ * <li>{@code ping}, answered by {@code {"status": "ok"}}, and </li>
+ * <li>{@code quit}, which closes the connection. </li>
+ * </ul>
+ * Any other request is answered with {@code "status": "error"} and a message.
+ * <p>
+ * Connections are served concurrently. The results are cached by request, and identical requests
+ * that arrive while the result is computed wait for it and are answered from the cache. The analyses
+ * themselves run one at a time, since the Soot Scene is shared; each of them may use several threads,
+ * see the environment variable {@code THREADS}. Cached results are answered without waiting for a
+ * running analysis.
+ * <p>
+ * When a jar on the class path, or a class file from which the Scene has been loaded, changes, the
+ * Scene is reloaded and the cached results are dropped. The files are checked for changes at most
+ * once a second. The converged table entries are kept in a
+ * {@link SummaryStore} across the reloads, so that the analyses after a change only compute the
+ * entries of the changed methods and the methods depending on them. The store is kept in memory,
+ * or in the file given by the environment variable {@code SUMMARY_STORE}.
+ */
+public class AnalysisServer {
+
+    private static final Map<String, Policy> POLICIES = Collections.singletonMap("abc", new ABCPolicy());
+    // Minimum time between two checks whether the files of the Scene have changed
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String classPath;
+    private final String classNamePattern;
+    // Guards the Scene, which is used by one analysis at a time
+    private final Object sceneLock = new Object();
+    // The loaded Scene and its cached results, replaced when the Scene is reloaded
+    private volatile Generation generation;
+    // The converged entries of the analyses, which are reused after the Scene is reloaded
+    private final SummaryStore summaries;
+
+    public AnalysisServer(String classPath, String classNamePattern) {
+        this.classPath = classPath;
+        this.classNamePattern = classNamePattern;
+        String file = System.getenv("SUMMARY_STORE");
+        this.summaries = file == null ? new SummaryStore() : new SummaryStore(Paths.get(file));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: AnalysisServer <port> <class path> <class name pattern>");
+            System.exit(1);
+        }
+        new AnalysisServer(args[1], args[2]).serve(Integer.parseInt(args[0]));
+    }
+
+    /**
+     * Serves the connections to the given port on the loopback address until the process is stopped.
+     * With port 0, an unused port is chosen.
+     */
+    public void serve(int port) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("Listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                connections.execute(() -> serveConnection(socket));
+            }
+        } finally {
+            connections.shutdownNow();
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            String line;
+            while ((line = in.readLine()) != null && !line.trim().equals("quit")) {
+                out.println(handle(line.trim()));
+            }
+        } catch (IOException e) {
+            // the client has gone away
+        }
+    }
+
+    /**
+     * Answers a single request.
+     */
+    String handle(String request) {
+        String[] words = request.split("\\s+", 5);
+        try {
+            if (words[0].equals("ping") && words.length == 1) {
+                return "{\"status\": \"ok\"}";
+            }
+            if (words[0].equals("analyze") && words.length == 5) {
+                Policy policy = POLICIES.get(words[1]);
+                if (policy == null) {
+                    return error("unknown policy " + words[1] + ", expected one of " + POLICIES.keySet());
+                }
+                int k = Integer.parseInt(words[2]);
+                if (k < 0) {
+                    return error("k must not be negative: " + k);
+                }
+                return analyze(policy, k, words[3], words[4]);
+            }
+            return error("expected: analyze <policy> <k> <class> <method> | ping | quit");
+        } catch (NumberFormatException e) {
+            return error("k must be a number: " + words[2]);
+        } catch (RuntimeException e) {
+            return error(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private String analyze(Policy policy, int k, String className, String method) {
+        String key = policy.getClass().getName() + " " + k + " " + className + " " + method;
+        String cached = current().results.get(key);
+        if (cached != null) {
+            return "{\"cached\": true, " + cached + "}";
+        }
+        synchronized (sceneLock) {
+            // the Scene may have been reloaded, or the result computed, while waiting for the lock
+            Generation g = reloadIfChanged();
+            cached = g.results.get(key);
+            if (cached != null) {
+                return "{\"cached\": true, " + cached + "}";
+            }
+            String result = compute(g.ta, policy, k, className, method);
+            g.results.put(key, result);
+            return "{\"cached\": false, " + result + "}";
+        }
+    }
+
+    /**
+     * Analyses the method and returns the fields of the JSON answer, apart from whether it is cached.
+     * The caller must hold the Scene lock.
+     */
+    private static String compute(TA ta, Policy policy, int k, String className, String method) {
+        InterProcTransAnalysis ana = ta.run(policy, k, className, method);
+        InterProcTransAnalysis.Result r = ana.getResult();
+        return "\"status\": \"ok\", \"method\": " + quote(r.getMethod().getSignature())
+                + ", \"transformation\": " + quote(r.getTransformation().toString())
+                + ", \"transformationIgnoringJimpleVariables\": "
+                + quote(r.getTransformation().removeJimpleLocals().toString())
+                + ", \"typeTerm\": " + quote(r.getTypeTerm().toString())
+                + ", \"outputEnvironment\": " + quote(r.getOutputEnvironment().toString())
+                + ", \"outputFieldTable\": " + quote(r.getOutputFieldTable().toString())
+                + ", \"outputType\": " + array(r.getOutputType().toSet().stream().map(Region::toString))
+                + ", \"widenedEntries\": " + array(r.getWidenedEntries().stream().map(SootMethodRef::getSignature));
+    }
+
+    /**
+     * Returns the current generation, reloading the Scene if its files have changed. Unless they
+     * have, the Scene lock is not taken, so that cached results are answered while an analysis runs.
+     */
+    private Generation current() {
+        Generation g = generation;
+        if (g != null && !g.isStale()) {
+            return g;
+        }
+        synchronized (sceneLock) {
+            return reloadIfChanged();
+        }
+    }
+
+    /**
+     * Loads the Scene if it has not been loaded or its files have changed, starting a new generation
+     * without cached results. The caller must hold the Scene lock.
+     */
+    private Generation reloadIfChanged() {
+        Generation g = generation;
+        if (g == null || g.isStale()) {
+            G.reset();
+            TA ta = TA.forClasses(classPath, classNamePattern);
+            ta.setPrintResult(false);
+            ta.setSummaryStore(summaries);
+            g = new Generation(ta, loadedFiles());
+            generation = g;
+        }
+        return g;
+    }
+
+    /**
+     * Returns the files on the class path from which the Scene has been loaded: the jars, and in
+     * the directories the class files of the loaded classes and their package directories, so
+     * that added or removed classes are noticed as well.
+     */
+    private List<Path> loadedFiles() {
+        List<Path> directories = new ArrayList<>();
+        Set<Path> files = new LinkedHashSet<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            Path path = Paths.get(entry);
+            if (Files.isDirectory(path)) {
+                directories.add(path);
+            } else if (Files.exists(path)) {
+                files.add(path);
+            }
+        }
+        for (SootClass c : Scene.v().getClasses()) {
+            String classFile = c.getName().replace('.', File.separatorChar) + ".class";
+            for (Path dir : directories) {
+                Path file = dir.resolve(classFile);
+                if (Files.isRegularFile(file)) {
+                    files.add(file.getParent());
+                    files.add(file);
+                }
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Returns the modification times and sizes of the given files.
+     */
+    private static List<String> stamp(List<Path> files) {
+        List<String> stamp = new ArrayList<>(files.size());
+        for (Path file : files) {
+            try {
+                stamp.add(Files.getLastModifiedTime(file).toMillis() + ":" + Files.size(file));
+            } catch (IOException e) {
+                // removed
+                stamp.add(null);
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * A loaded Scene together with the results computed in it.
+     */
+    private static final class Generation {
+        final TA ta;
+        final List<Path> files;
+        final List<String> stamp;
+        final ConcurrentHashMap<String, String> results = new ConcurrentHashMap<>();
+        // Time of the last comparison of the files with the stamp, and whether they had changed
+        private volatile long checked;
+        private volatile boolean stale = false;
+
+        Generation(TA ta, List<Path> files) {
+            this.ta = ta;
+            this.files = files;
+            this.stamp = stamp(files);
+            this.checked = System.nanoTime();
+        }
+
+        /**
+         * Returns whether the files have changed since the Scene was loaded. They are compared with
+         * the stamp at most once per {@link #CHECK_INTERVAL_NANOS}, so that the cached results are
+         * answered without looking at all files on every request.
+         */
+        boolean isStale() {
+            long now = System.nanoTime();
+            if (!stale && now - checked >= CHECK_INTERVAL_NANOS) {
+                checked = now;
+                stale = !stamp.equals(stamp(files));
+            }
+            return stale;
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"status\": \"error\", \"message\": " + quote(message) + "}";
+    }
+
+    private static String array(Stream<String> elements) {
+        return elements.map(AnalysisServer::quote).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
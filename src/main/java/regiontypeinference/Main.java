@@ -13,8 +13,13 @@ public class Main {
             "lib/j2ee.jar" + File.pathSeparator +
             "lib/java2html.jar";
     private static Policy abcPolicy = new ABCPolicy();
+    private static TA ta;
 
     public static void main(String[] args) {
+        // load all test cases into one Scene
+        G.reset();
+        ta = TA.forClasses(classPath, "testcases.paperexamples.*");
+
         System.out.println("======================================== Test Case 1 ========================================");
         System.out.println("File location: testcases/paperexamples/RunningExample.java");
         System.out.println("The running example code is given in the body of the method foo:\n    x = y.f;\n    y = new C();\n    y.f = x;");
@@ -35,14 +40,15 @@ public class Main {
         runTestCase("testcases.paperexamples.RunningExample", "f");
         System.out.println("From the above analysis result of the method f, we get the environment after executing the running example code:");
         System.out.println("  ( x#3: {<created at .(RunningExample.java:7)>},\n" +
-                "    y#4: {<created at .(RunningExample.java:14)>},\n" +
+                "    y#4: {<created at .(RunningExample.java:14) in call from .(RunningExample.java:9)>},\n" +
                 "    <created at .(RunningExample.java:6)>.f: {<created at .(RunningExample.java:7)>},\n" +
-                "    <created at .(RunningExample.java:14)>.f: {<created at .(RunningExample.java:7)>, null} )");
+                "    <created at .(RunningExample.java:14) in call from .(RunningExample.java:9)>.f: {<created at .(RunningExample.java:7)>, null} )");
+        System.out.println("where the object created in foo is distinguished by the call from f in which it is created.");
         System.out.println();
         System.out.println("We obtain the same result for the running example given in Fig. 1 of the paper, if we take");
         System.out.println("    A = <created at .(RunningExample.java:6)>,\n" +
                 "    B = <created at .(RunningExample.java:7)>,\n" +
-                "    C = <created at .(RunningExample.java:14)>.");
+                "    C = <created at .(RunningExample.java:14) in call from .(RunningExample.java:9)>.");
         System.out.println("==================================== End of Test Case 1 =====================================");
 
         System.out.println();
@@ -106,8 +112,6 @@ public class Main {
     }
 
     private static void runTestCase(String className, String methodName) {
-        G.reset();
-        TA ta = new TA(classPath, className);
-        ta.run(abcPolicy, 1, methodName);
+        ta.run(abcPolicy, 1, className, methodName);
     }
 }
@@ -10,13 +10,35 @@ import java.util.stream.Collectors;
 
 /**
  * Information about which classes have mock code.
+ * The information is computed once for the application classes of a Scene, see {@link #v()}.
  */
 public class MockInfo {
+    private static MockInfo instance = null;
+
     private final Map<String, String> mockClass;
+    // The mock method for each method of a mocked class, keyed by its class name, name and parameter types
+    private final Map<List<Object>, SootMethodRef> mockMethods = new HashMap<>();
 
     private final Logger logger = LoggerFactory.getLogger(MockInfo.class);
 
-    public MockInfo() {
+    /**
+     * Returns the information for the current Scene, computing it when it is first needed.
+     */
+    public static synchronized MockInfo v() {
+        if (instance == null) {
+            instance = new MockInfo();
+        }
+        return instance;
+    }
+
+    /**
+     * Forgets the information, so that it is computed again for the next Scene.
+     */
+    public static synchronized void reset() {
+        instance = null;
+    }
+
+    private MockInfo() {
         this.mockClass = new HashMap<>();
 
         for (SootClass appClass : Scene.v().getApplicationClasses()) {
@@ -32,6 +54,16 @@ public class MockInfo {
                 }
             }
         }
+        for (Map.Entry<String, String> entry : mockClass.entrySet()) {
+            for (SootMethod m : Scene.v().getSootClass(entry.getValue()).getMethods()) {
+                // TODO: check that return types match
+                mockMethods.putIfAbsent(methodKey(entry.getKey(), m.getName(), m.getParameterTypes()), m.makeRef());
+            }
+        }
+    }
+
+    private static List<Object> methodKey(String className, String name, List<Type> parameterTypes) {
+        return Arrays.asList(className, name, parameterTypes);
     }
 
     private static List<String> replacesAnnotation(SootClass c) {
@@ -83,13 +115,8 @@ public class MockInfo {
      *         method exists, {@code m} otherwise.
      */
     public SootMethodRef mockMethodRef(SootMethodRef m) {
-        String mockClass = getMockClassName(m.getDeclaringClass().getName());
-        if (mockClass != null && Scene.v().getSootClass(mockClass).declaresMethod(m.getName(), m.getParameterTypes())) {
-            SootMethod mockCandidate = Scene.v().getSootClass(mockClass).getMethod(m.getName(), m.getParameterTypes());
-            // TODO: check that return types match
-            return mockCandidate.makeRef();
-        } else {
-            return m;
-        }
+        SootMethodRef mock = mockMethods.get(methodKey(m.getDeclaringClass().getName(), m.getName(),
+                m.getParameterTypes()));
+        return mock != null ? mock : m;
     }
 }
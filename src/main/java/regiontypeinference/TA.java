@@ -1,10 +1,17 @@
 package regiontypeinference;
 
+import regiontypeinference.interproc.CFGCache;
+import regiontypeinference.interproc.CallingContext;
 import regiontypeinference.interproc.InterProcTransAnalysis;
+import regiontypeinference.interproc.SummaryStore;
 import regiontypeinference.policy.Policy;
+import regiontypeinference.region.RegionUniverse;
 import soot.*;
 import soot.options.Options;
-import java.util.Arrays;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.*;
 
 public class TA {
 
@@ -14,21 +21,136 @@ public class TA {
 
     private static final int MAX_ITERATIONS = 40;
 
+    private static final int WIDENING_DELAY = Integer.parseInt(System.getenv().getOrDefault("WIDENING_DELAY", "20"));
+
+    private static final int THREADS = Integer.parseInt(System.getenv().getOrDefault("THREADS", "1"));
+
+    private static final boolean BLOCK_LEVEL = Boolean.valueOf(System.getenv().getOrDefault("BLOCK_LEVEL", "false"));
+
+    private static final int MAX_CONTEXTS = Integer.parseInt(System.getenv().getOrDefault("MAX_CONTEXTS", "16"));
+
+    private static final String SUMMARY_STORE = System.getenv("SUMMARY_STORE");
+
     private final SootClass mainApplicationClass;
 
+    // Classes loaded by {@link #forClasses}, whose methods are analysed in batch
+    private final List<SootClass> batchClasses;
+
+    // Bodies and control flow graphs shared by all analyses in the Scene
+    private final CFGCache cfgCache;
+
+    private boolean printResult = true;
+
+    // Store of the converged entries, given by the environment variable SUMMARY_STORE unless set otherwise
+    private SummaryStore summaryStore = SUMMARY_STORE == null ? null : new SummaryStore(Paths.get(SUMMARY_STORE));
+
     TA(String sootClassPath, String mainApplicationClassName, String... appClasses) {
-        this.mainApplicationClass = setupSoot(sootClassPath, mainApplicationClassName, appClasses);
+        this.mainApplicationClass = setupSoot(sootClassPath, Collections.singletonList(mainApplicationClassName),
+                appClasses).get(0);
+        this.batchClasses = Collections.singletonList(mainApplicationClass);
+        this.cfgCache = new CFGCache(MockInfo.v());
+    }
+
+    private TA(String sootClassPath, List<String> classNames) {
+        this.batchClasses = setupSoot(sootClassPath, classNames);
+        this.mainApplicationClass = batchClasses.isEmpty() ? null : batchClasses.get(0);
+        this.cfgCache = new CFGCache(MockInfo.v());
+    }
+
+    /**
+     * Sets up Soot once for all classes on the class path whose names match the given pattern,
+     * so that many entry methods can be analysed in the same Scene with {@link #run(Policy, int, String, String)}
+     * and {@link #runBatch}. As for the excluded library packages, a pattern ending in {@code *}
+     * matches all classes whose names start with the preceding prefix, e.g. {@code testcases.paperexamples.*};
+     * any other pattern matches the class of that name.
+     */
+    static TA forClasses(String sootClassPath, String classNamePattern) {
+        List<String> classNames = new ArrayList<>();
+        if (classNamePattern.endsWith("*")) {
+            String prefix = classNamePattern.substring(0, classNamePattern.length() - 1);
+            for (String path : sootClassPath.split(File.pathSeparator)) {
+                if (new File(path).exists()) {
+                    for (String cName : SourceLocator.v().getClassesUnder(path)) {
+                        if (cName.startsWith(prefix)) {
+                            classNames.add(cName);
+                        }
+                    }
+                }
+            }
+            Collections.sort(classNames);
+        } else {
+            classNames.add(classNamePattern);
+        }
+        return new TA(sootClassPath, classNames);
+    }
+
+    /**
+     * Sets whether the analyses print their results, which they do by default.
+     */
+    void setPrintResult(boolean printResult) {
+        this.printResult = printResult;
+    }
+
+    /**
+     * Sets the store from which the analyses reuse converged entries and to which they save them,
+     * or null for none. The store can outlive the Scene, see {@link SummaryStore}.
+     */
+    void setSummaryStore(SummaryStore summaryStore) {
+        this.summaryStore = summaryStore;
     }
 
     InterProcTransAnalysis run(Policy policy, int kCFA, String methodNameOrSubSignature) {
-        SootMethod method = getMethodByNameOrSubSignature(methodNameOrSubSignature);
+        return run(policy, kCFA, getMethodByNameOrSubSignature(mainApplicationClass, methodNameOrSubSignature));
+    }
+
+    /**
+     * Analyses a method of one of the loaded classes.
+     */
+    InterProcTransAnalysis run(Policy policy, int kCFA, String className, String methodNameOrSubSignature) {
+        return run(policy, kCFA, getMethodByNameOrSubSignature(Scene.v().getSootClass(className),
+                methodNameOrSubSignature));
+    }
 
-        InterProcTransAnalysis ana = new InterProcTransAnalysis(policy, kCFA, method);
-        boolean success = ana.analyze(MAX_ITERATIONS);
-        return success ? ana : null;
+    /**
+     * Analyses the methods with the given names or sub-signatures in all classes loaded by
+     * {@link #forClasses}, reusing the Scene, the mock information and the control flow graphs.
+     * Classes that do not declare a method of the given name are skipped.
+     * @return the analysis of each analysed method
+     */
+    Map<SootMethod, InterProcTransAnalysis> runBatch(Policy policy, int kCFA, List<String> methodNamesOrSubSignatures) {
+        Map<SootMethod, InterProcTransAnalysis> result = new LinkedHashMap<>();
+        for (SootClass c : batchClasses) {
+            for (String nameOrSubSignature : methodNamesOrSubSignatures) {
+                if (!c.declaresMethodByName(nameOrSubSignature) && !c.declaresMethod(nameOrSubSignature)) {
+                    continue;
+                }
+                SootMethod method = getMethodByNameOrSubSignature(c, nameOrSubSignature);
+                result.put(method, run(policy, kCFA, method));
+            }
+        }
+        return result;
     }
 
-    private SootClass setupSoot(String sootClassPath, String entryPointClass, String... appClasses) {
+    private InterProcTransAnalysis run(Policy policy, int kCFA, SootMethod method) {
+        InterProcTransAnalysis ana = new InterProcTransAnalysis(policy, kCFA, method, cfgCache);
+        ana.setThreads(THREADS);
+        ana.setPrintResult(printResult);
+        ana.setWideningDelay(WIDENING_DELAY);
+        ana.setBlockLevel(BLOCK_LEVEL);
+        ana.setMaxContexts(MAX_CONTEXTS);
+        if (summaryStore != null) {
+            ana.setSummaryStore(summaryStore);
+        }
+        ana.analyze(MAX_ITERATIONS);
+        return ana;
+    }
+
+    private List<SootClass> setupSoot(String sootClassPath, List<String> classNames, String... appClasses) {
+
+        // Regions, calling contexts and mock classes of earlier Scenes are no longer needed
+        RegionUniverse.reset();
+        CallingContext.reset();
+        MockInfo.reset();
 
         // We set up various soot options:
         Options.v().set_output_format(Options.output_format_jimple);
@@ -47,9 +169,13 @@ public class TA {
         // Exclude library classes
         Options.v().set_exclude(Arrays.asList(library));
 
-        // Load the main class
-        SootClass c = Scene.v().loadClassAndSupport(entryPointClass);
-        c.setApplicationClass();
+        // Load the main classes
+        List<SootClass> classes = new ArrayList<>();
+        for (String cName : classNames) {
+            SootClass c = Scene.v().loadClassAndSupport(cName);
+            c.setApplicationClass();
+            classes.add(c);
+        }
 
         // Load all mock classes
         // addMockClasses();
@@ -62,16 +188,16 @@ public class TA {
         // Complete class loading
         Scene.v().loadNecessaryClasses();
 
-        return c;
+        return classes;
     }
 
-    private SootMethod getMethodByNameOrSubSignature(String nameOrSubSignature) {
+    private static SootMethod getMethodByNameOrSubSignature(SootClass c, String nameOrSubSignature) {
         try {
             // Generally, we write just the name, not the sub-signature.
             // However, when the method is ambiguous, we write the signature.
-            return mainApplicationClass.getMethodByName(nameOrSubSignature);
+            return c.getMethodByName(nameOrSubSignature);
         } catch (RuntimeException e) {
-            return mainApplicationClass.getMethod(nameOrSubSignature);
+            return c.getMethod(nameOrSubSignature);
         }
     }
 }
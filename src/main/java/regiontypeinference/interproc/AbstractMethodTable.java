@@ -10,40 +10,201 @@ import regiontypeinference.transformation.Transformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.*;
+import soot.toolkits.graph.BriefBlockGraph;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.DirectedGraph;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTerm> {
 
     private final Policy policy;
+    private final int maxContextDepth;
     private final TypePool typePool;
     private final CFGCache cfgCache;
     private final MockInfo typeMap;
+    // Version stamp of the last update of each entry
+    private final Map<SootMethodRef, Long> versions = new HashMap<>();
+    private long clock = 0;
+    private Observer observer = NO_OBSERVER;
+    // Number of changes of each entry, and the number after which the entry is widened
+    private final Map<SootMethodRef, Integer> changes = new HashMap<>();
+    private int wideningDelay = Integer.MAX_VALUE;
+    // Entries whose changes are widened regardless of their number, see forceWidening
+    private final Set<SootMethodRef> forcedWidening = new HashSet<>();
+    private final Set<SootMethodRef> widened = new LinkedHashSet<>();
+    // Call sites at which the entry of each method is adapted to the calling context, see addCallSite
+    private final Map<SootMethodRef, Set<Location>> contextCallSites = new HashMap<>();
+    private int maxContexts = Integer.MAX_VALUE;
+    // Entries of the callees as seen at these call sites, with the version of the entry they were derived from
+    private final Map<Location, ContextEntry> contextEntries = new HashMap<>();
+    // Kind and body of each method, classified when the method is first seen
+    private final Map<SootMethodRef, MethodInfo> methodInfos = new ConcurrentHashMap<>();
+    // Transformations computed in the current parallel round, if any
+    private volatile ConcurrentHashMap<SootMethodRef, TransAndTerm> roundUpdates = null;
     private final Logger logger = LoggerFactory.getLogger(AbstractMethodTable.class);
 
-    AbstractMethodTable(Policy policy, int maxContextDepth, SootMethod entryPoint) {
+    AbstractMethodTable(Policy policy, int maxContextDepth, SootMethod entryPoint, CFGCache cfgCache) {
         super();
         this.policy = policy;
-        this.typeMap = new MockInfo();
-        this.cfgCache = new CFGCache(this.typeMap);
-        this.typePool = new TypePool(this.cfgCache, maxContextDepth, entryPoint.makeRef());
+        this.maxContextDepth = maxContextDepth;
+        this.typeMap = cfgCache.getMockInfo();
+        this.cfgCache = cfgCache;
+        this.typePool = new TypePool(this.cfgCache, entryPoint.makeRef());
     }
 
-    AbstractMethodTable(AbstractMethodTable other) {
-        super(other);
-        this.policy = other.policy;
-        this.typeMap = other.typeMap;
-        this.cfgCache = other.cfgCache;
-        this.typePool = other.typePool;
+    /**
+     * Observer of the reads and updates of the table entries.
+     */
+    interface Observer {
+        /**
+         * The analysis of {@code reader} has read the entry of {@code m}.
+         */
+        void entryRead(SootMethodRef reader, SootMethodRef m);
+
+        /**
+         * The entry of {@code m} has been added or reset to its default transformation.
+         */
+        void entryAdded(SootMethodRef m);
+
+        /**
+         * The entry of {@code m} has been joined with new information from the analysis of {@code source}.
+         */
+        void entryChanged(SootMethodRef m, SootMethodRef source);
+    }
+
+    private static final Observer NO_OBSERVER = new Observer() {
+        @Override
+        public void entryRead(SootMethodRef reader, SootMethodRef m) { }
+
+        @Override
+        public void entryAdded(SootMethodRef m) { }
+
+        @Override
+        public void entryChanged(SootMethodRef m, SootMethodRef source) { }
+    };
+
+    void setObserver(Observer observer) {
+        this.observer = Objects.requireNonNull(observer);
+    }
+
+    /**
+     * Returns the version stamp of the last update of the entry of {@code m},
+     * or 0 if there is no such entry.
+     */
+    public synchronized long getVersion(SootMethodRef m) {
+        return versions.getOrDefault(m, 0L);
+    }
+
+    /**
+     * Returns the version stamp of the last update of any entry.
+     * The table has not changed as long as this stamp stays the same.
+     */
+    public synchronized long getLastVersion() {
+        return clock;
+    }
+
+    /**
+     * Starts a round in which methods are analysed in parallel. Until the round is finished,
+     * the transformations given to {@link #joinIfPresent} are only collected and joined with
+     * each other, so that all analyses in the round read the entries as they were at its start.
+     */
+    void startRound() {
+        roundUpdates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Finishes the current round by joining the collected transformations into the table.
+     */
+    void finishRound() {
+        Map<SootMethodRef, TransAndTerm> updates = roundUpdates;
+        roundUpdates = null;
+        updates.forEach(this::joinIfPresent);
+    }
+
+    /**
+     * Sets the number of changes of an entry after which further changes are widened,
+     * see {@link TransAndTerm#widen()}.
+     */
+    void setWideningDelay(int wideningDelay) {
+        this.wideningDelay = wideningDelay;
+    }
+
+    /**
+     * Widens the entries that {@link #joinIfPresent} updates for {@code m}, and all their further changes,
+     * regardless of the widening delay. As the widened transformations form a finite domain, these entries
+     * change only finitely often from then on.
+     * @param m  entry key
+     */
+    synchronized void forceWidening(SootMethodRef m) {
+        for (SootMethodRef target : joinTargets(m)) {
+            if (!forcedWidening.add(target)) {
+                continue;
+            }
+            TransAndTerm old = get(target);
+            TransAndTerm widenedTT = old.widen();
+            if (!widenedTT.equals(old)) {
+                widened.add(target);
+                put(target, widenedTT);
+                stamp(target);
+                observer.entryChanged(target, m);
+            }
+        }
+    }
+
+    /**
+     * Sets the number of calling contexts in which the entry of a method is kept,
+     * see {@link #lookup(SootMethodRef, SootMethodRef, Location)}.
+     */
+    void setMaxContexts(int maxContexts) {
+        this.maxContexts = maxContexts;
+    }
+
+    /**
+     * Records a call site of {@code m}. The entry of {@code m} is adapted to the calling contexts of the first
+     * call sites recorded for it, up to the maximum number of contexts. The call sites must be recorded before
+     * any entry is looked up, and in an order that does not depend on the run, so that the same call sites
+     * keep their contexts in all runs.
+     * @param m     entry key
+     * @param call  location of a call of {@code m}
+     */
+    synchronized void addCallSite(SootMethodRef m, Location call) {
+        Set<Location> calls = contextCallSites.computeIfAbsent(m, k -> new LinkedHashSet<>());
+        if (calls.size() < maxContexts) {
+            calls.add(call);
+        }
+    }
+
+    /**
+     * Returns the calling context of the allocation sites in the analysed methods, with respect to
+     * which their entries are computed.
+     */
+    public CallingContext getRootContext() {
+        return CallingContext.root(maxContextDepth);
+    }
+
+    /**
+     * Returns the entries that have been widened, and thus may be less precise.
+     */
+    public Set<SootMethodRef> getWidenedEntries() {
+        return Collections.unmodifiableSet(widened);
+    }
+
+    /**
+     * Returns whether the entry of {@code m} has been widened.
+     */
+    public synchronized boolean isWidened(SootMethodRef m) {
+        return widened.contains(m);
     }
 
     public TypePool getTypePool() {
         return typePool;
     }
 
-    private enum MethodKind {
+    enum MethodKind {
         APPLICATION_METHOD,
         INTRINSIC,
         EMPTY_DEFAULT_CONSTRUCTOR,
@@ -51,7 +212,32 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
         OPAQUE_LIBRARY_METHOD
     }
 
-    private MethodKind getKind(SootMethodRef m) {
+    /**
+     * Kind and body of a method, which do not change during the analysis.
+     */
+    private static final class MethodInfo {
+        final MethodKind kind;
+        final Body body;
+
+        MethodInfo(MethodKind kind, Body body) {
+            this.kind = kind;
+            this.body = body;
+        }
+    }
+
+    private MethodInfo infoOf(SootMethodRef m) {
+        return methodInfos.computeIfAbsent(m, ref -> {
+            MethodKind kind = classify(ref);
+            boolean hasBody = kind == MethodKind.APPLICATION_METHOD || kind == MethodKind.MOCKED_LIBRARY_METHOD;
+            return new MethodInfo(kind, hasBody ? cfgCache.getOrCreate(ref) : null);
+        });
+    }
+
+    MethodKind getKind(SootMethodRef m) {
+        return infoOf(m).kind;
+    }
+
+    private MethodKind classify(SootMethodRef m) {
         // Intrinsic methods are specified by the policy
         if (policy.getIntrinsicMethod(m) != null) {
             return MethodKind.INTRINSIC;
@@ -81,33 +267,135 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
         return MethodKind.APPLICATION_METHOD;
     }
 
+    /**
+     * Returns the body of {@code m} that is analysed, or null if {@code m} is analysed without a body.
+     */
     public Body getBody(SootMethodRef m) {
-        MethodKind kind = getKind(m);
-        if (kind == MethodKind.APPLICATION_METHOD || kind == MethodKind.MOCKED_LIBRARY_METHOD) {
-            return cfgCache.getOrCreate(m);
-        } else {
-            return null;
+        return infoOf(m).body;
+    }
+
+    /**
+     * Returns the bodies of the methods analysed so far.
+     */
+    Collection<Body> getBodies() {
+        return cfgCache.getBodies();
+    }
+
+    /**
+     * Returns the control flow graph of the body of {@code m}, or null if {@code m} is analysed without a body.
+     */
+    public synchronized BriefUnitGraph getGraph(SootMethodRef m) {
+        Body body = getBody(m);
+        return body == null ? null : cfgCache.getBriefUnitGraph(body);
+    }
+
+    /**
+     * Returns the basic block graph of the body of {@code m}, or null if {@code m} is analysed without a body.
+     */
+    public synchronized BriefBlockGraph getBlockGraph(SootMethodRef m) {
+        Body body = getBody(m);
+        return body == null ? null : cfgCache.getBriefBlockGraph(body);
+    }
+
+    /**
+     * Returns the nodes of {@code graph} in the order used for the fixed-point iteration.
+     */
+    public <N> List<N> getOrdering(DirectedGraph<N> graph) {
+        return cfgCache.getOrdering(graph);
+    }
+
+    /**
+     * Returns the entry of {@code m}, adding the default one if there is none,
+     * and records that the analysis of {@code reader} depends on it.
+     * @param reader method whose analysis reads the entry
+     * @param m      entry key
+     * @return       the entry of {@code m}
+     */
+    public synchronized TransAndTerm lookup(SootMethodRef reader, SootMethodRef m) {
+        ensurePresent(m);
+        observer.entryRead(reader, m);
+        return get(m);
+    }
+
+    /**
+     * Returns the entry of {@code m} as seen by the call at {@code call}, see {@link TransAndTerm#inCallFrom},
+     * and records that the analysis of {@code reader} depends on the entry of {@code m}.
+     * Only the call sites recorded by {@link #addCallSite} get their calling contexts; at all other call sites
+     * of {@code m}, its entry is returned unchanged. The adapted entries are kept for each call site, so that
+     * they are only computed again when the entry of {@code m} changes.
+     * @param reader method whose analysis reads the entry
+     * @param m      entry key
+     * @param call   location of the call of {@code m}
+     * @return       the entry of {@code m} in the calling context of the call
+     */
+    public synchronized TransAndTerm lookup(SootMethodRef reader, SootMethodRef m, Location call) {
+        TransAndTerm tt = lookup(reader, m);
+        if (maxContextDepth == 0 || !contextCallSites.getOrDefault(m, Collections.emptySet()).contains(call)) {
+            return tt;
+        }
+        long version = getVersion(m);
+        ContextEntry entry = contextEntries.get(call);
+        if (entry == null || entry.version != version) {
+            entry = new ContextEntry(version, tt.inCallFrom(call));
+            contextEntries.put(call, entry);
+        }
+        return entry.tt;
+    }
+
+    private static final class ContextEntry {
+        final long version;
+        final TransAndTerm tt;
+
+        ContextEntry(long version, TransAndTerm tt) {
+            this.version = version;
+            this.tt = tt;
         }
     }
 
     /**
      * Join the entry at key {@code m} with the transformation {@code tt},
      * if the table has an entry for that key. It does nothing if no key is present.
+     * During a parallel round, the join is deferred to the end of the round.
      * @param m  entry key
      * @param tt transformation to be joined
      */
     public void joinIfPresent(SootMethodRef m, TransAndTerm tt) {
         Objects.requireNonNull(m);
         Objects.requireNonNull(tt);
-        this.computeIfPresent(m, (k, v) -> v.join(tt));
+        Map<SootMethodRef, TransAndTerm> updates = roundUpdates;
+        if (updates != null) {
+            updates.merge(m, tt, TransAndTerm::join);
+            return;
+        }
+        synchronized (this) {
+            joinWithSubtypes(m, tt);
+        }
+    }
+
+    private void joinWithSubtypes(SootMethodRef m, TransAndTerm tt) {
+        for (SootMethodRef target : joinTargets(m)) {
+            joinAt(target, m, tt);
+        }
+    }
+
+    /**
+     * Returns the present entries that {@link #joinIfPresent} updates for {@code m}:
+     * the entry of {@code m} itself, the entries of all subclasses inheriting the method
+     * and the entries of all superclasses and interfaces.
+     * @param m  entry key
+     * @return   the keys of the entries to be updated
+     */
+    synchronized List<SootMethodRef> joinTargets(SootMethodRef m) {
+        List<SootMethodRef> targets = new ArrayList<>();
+        targets.add(m);
         // maintain the subtyping invariant
         SootClass c = m.getDeclaringClass();
-        Consumer<SootClass> joinAt = mr -> {
+        Consumer<SootClass> addTarget = mr -> {
             SootMethodRef newRef = Scene.v().makeMethodRef(mr, m.getName(), m.getParameterTypes(),
                     m.getReturnType(), m.isStatic());
-            this.computeIfPresent(newRef, (k, v) -> v.join(tt));
+            targets.add(newRef);
         };
-        // update entries of all classes that inherit the method
+        // entries of all classes that inherit the method
         Hierarchy h = Scene.v().getActiveHierarchy();
         Deque<SootClass> queue = new LinkedList<>(c.isInterface() ? h.getDirectImplementersOf(c) :
                 h.getDirectSubclassesOf(c));
@@ -117,22 +405,65 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
                 continue;
             }
             if (!d.declaresMethod(m.getSubSignature())) {
-                joinAt.accept(d);
+                addTarget.accept(d);
                 queue.addAll(d.isInterface() ? h.getDirectImplementersOf(d) : h.getDirectSubclassesOf(d));
             }
         }
-        // update the entry of any superclass entry to ensure invariant
+        // entries of all superclasses and interfaces
         while (!c.isInterface() && c.hasSuperclass()) {
             queue.addAll(c.getInterfaces());
             c = c.getSuperclass();
-            joinAt.accept(c);
+            addTarget.accept(c);
         }
         queue.addAll(c.getInterfaces());
         while (!queue.isEmpty()) {
             SootClass d = queue.pop();
-            joinAt.accept(d);
+            addTarget.accept(d);
             queue.addAll(d.getInterfaces());
         }
+        targets.removeIf(t -> !containsKey(t));
+        return targets;
+    }
+
+    private void joinAt(SootMethodRef m, SootMethodRef source, TransAndTerm tt) {
+        TransAndTerm old = get(m);
+        if (old == null || tt.leq(old)) {
+            // no new information
+            return;
+        }
+        TransAndTerm joined = old.join(tt);
+        if (changes.merge(m, 1, Integer::sum) > wideningDelay || forcedWidening.contains(m)) {
+            TransAndTerm widenedTT = joined.widen();
+            if (!widenedTT.equals(joined)) {
+                widened.add(m);
+            }
+            joined = widenedTT;
+            if (joined.equals(old)) {
+                return;
+            }
+        }
+        put(m, joined);
+        stamp(m);
+        observer.entryChanged(m, source);
+    }
+
+    /**
+     * Replaces the entry of {@code m} by {@code tt}, which is known to be the converged entry,
+     * e.g. from an earlier run. Unlike the joins, this is not reported to the observer.
+     * @param widened whether the entry has been widened when it was computed
+     */
+    synchronized void seed(SootMethodRef m, TransAndTerm tt, boolean widened) {
+        put(m, Objects.requireNonNull(tt));
+        stamp(m);
+        if (widened) {
+            this.widened.add(m);
+        } else {
+            this.widened.remove(m);
+        }
+    }
+
+    private void stamp(SootMethodRef m) {
+        versions.put(m, ++clock);
     }
 
     /**
@@ -141,7 +472,7 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
      * Well-formedness is maintained: an entry for each relevant subclasses is added.
      * @param m  method to ensure
      */
-    public void ensurePresent(SootMethodRef m) {
+    public synchronized void ensurePresent(SootMethodRef m) {
         Objects.requireNonNull(m);
         if (this.containsKey(m)) {
             return;
@@ -157,6 +488,8 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
         }
         // add the default transformation to the method
         put(m, defaultTransAndTerm(m));
+        stamp(m);
+        observer.entryAdded(m);
         // close under subtyping
         // closure is not needed for constructors
         if (m.getName().equals("<init>")) {
@@ -181,7 +514,11 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
             SootMethodRef newRef = Scene.v().makeMethodRef(subC,
                     m.getName(), m.getParameterTypes(), m.getReturnType(),
                     m.isStatic());
-            putIfAbsent(newRef, defaultTransAndTerm(newRef));
+            if (!containsKey(newRef)) {
+                put(newRef, defaultTransAndTerm(newRef));
+                stamp(newRef);
+                observer.entryAdded(newRef);
+            }
         }
     }
 
@@ -193,21 +530,21 @@ public final class AbstractMethodTable extends HashMap<SootMethodRef, TransAndTe
     private TransAndTerm defaultTransAndTerm(SootMethodRef m) {
         // methods that will be analysed can get the bottom annotation
         Supplier<TransAndTerm> bottom = () -> {
-            return new TransAndTerm(Transformation.bottom(), new Term());
+            return new TransAndTerm(Transformation.bottom(), Term.bottom());
         };
         // unknown methods get a conservative approximation
         Supplier<TransAndTerm> unknown = () -> {
             Region r = m.getReturnType() instanceof RefType ?
                     SpecialRegion.UNKNOWN_REGION : SpecialRegion.BASETYPE_REGION;
-            return new TransAndTerm(Transformation.identity(), new Term(r));
+            return new TransAndTerm(Transformation.identity(), Term.of(r));
         };
         switch (getKind(m)) {
             case INTRINSIC: {
                 Intrinsic i = policy.getIntrinsicMethod(m);
-                return new TransAndTerm(Transformation.identity(), new Term(i.getReturnType()));
+                return new TransAndTerm(Transformation.identity(), Term.of(i.getReturnType()));
             }
             case EMPTY_DEFAULT_CONSTRUCTOR: {
-                Term t = new Term(SpecialRegion.BASETYPE_REGION);
+                Term t = Term.of(SpecialRegion.BASETYPE_REGION);
                 return new TransAndTerm(Transformation.identity(), t);
             }
             case OPAQUE_LIBRARY_METHOD: {
@@ -3,27 +3,52 @@ package regiontypeinference.interproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.*;
+import soot.toolkits.graph.BriefBlockGraph;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.DirectedGraph;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.PseudoTopologicalOrderer;
 import soot.util.NumberedString;
 import regiontypeinference.MockInfo;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Cache to avoid repeated construction of control flow graphs.
+ * <p>
+ * Besides the bodies, it keeps the unit and block graphs built from them and the pseudo-topological
+ * orderings of these graphs, so that each of them is constructed at most once per method.
  */
 public class CFGCache {
     private final Map<SootMethodRef, Body> bodies;
+    private final Map<Body, BriefUnitGraph> briefGraphs = new IdentityHashMap<>();
+    private final Map<Body, ExceptionalUnitGraph> exceptionalGraphs = new IdentityHashMap<>();
+    private final Map<Body, BriefBlockGraph> blockGraphs = new IdentityHashMap<>();
+    private final Map<DirectedGraph<?>, List<?>> orderings = new IdentityHashMap<>();
     private final MockInfo typeMap;
 
     private final Logger logger = LoggerFactory.getLogger(CFGCache.class);
 
-    CFGCache(MockInfo typeMap) {
+    /**
+     * Creates an empty cache for the current Scene. It may be shared by the analyses of
+     * several entry methods in the same Scene.
+     */
+    public CFGCache(MockInfo typeMap) {
         bodies = new HashMap<>();
         this.typeMap = typeMap;
     }
 
-    public Body getOrCreate(SootMethodRef mRef0) {
+    public MockInfo getMockInfo() {
+        return typeMap;
+    }
+
+    public synchronized Body getOrCreate(SootMethodRef mRef0) {
         SootMethodRef mRef = typeMap.mockMethodRef(mRef0);
         if (mRef != mRef0) {
             logger.info("Using mocked method " + mRef + " instead of " + mRef0);
@@ -44,6 +69,44 @@ public class CFGCache {
         return body;
     }
 
+    /**
+     * Returns the bodies retrieved so far.
+     */
+    public synchronized Collection<Body> getBodies() {
+        return new ArrayList<>(bodies.values());
+    }
+
+    /**
+     * Returns the unit graph of {@code body} without exceptional edges.
+     */
+    public synchronized BriefUnitGraph getBriefUnitGraph(Body body) {
+        return briefGraphs.computeIfAbsent(body, BriefUnitGraph::new);
+    }
+
+    /**
+     * Returns the basic block graph of {@code body} without exceptional edges.
+     */
+    public synchronized BriefBlockGraph getBriefBlockGraph(Body body) {
+        return blockGraphs.computeIfAbsent(body, b -> new BriefBlockGraph(getBriefUnitGraph(b)));
+    }
+
+    /**
+     * Returns the unit graph of {@code body} with exceptional edges.
+     */
+    public synchronized ExceptionalUnitGraph getExceptionalUnitGraph(Body body) {
+        return exceptionalGraphs.computeIfAbsent(body, ExceptionalUnitGraph::new);
+    }
+
+    /**
+     * Returns the nodes of {@code graph} in pseudo-topological order.
+     * The graph must not be modified after the first call.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <N> List<N> getOrdering(DirectedGraph<N> graph) {
+        return (List<N>) orderings.computeIfAbsent(graph,
+                g -> Collections.unmodifiableList(new PseudoTopologicalOrderer<N>().newList(graph, false)));
+    }
+
     @Override
     public String toString() {
         return "CFGCache{" +
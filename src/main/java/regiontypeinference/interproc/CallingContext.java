@@ -4,39 +4,131 @@ import soot.SootMethod;
 import soot.jimple.Stmt;
 
 import javax.annotation.concurrent.Immutable;
-import java.util.LinkedList;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Calling contexts, i.e. the locations of the last k calls.
+ * <p>
+ * The contexts are interned as the nodes of a tree: the children of a context are the contexts with one
+ * more call, so that contexts share their calls, and equal contexts are the same instance with a unique id.
+ */
 @Immutable
 public final class CallingContext {
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+  private static volatile Map<Integer, CallingContext> roots = new ConcurrentHashMap<>();
+
+  private final int id;
   private final int k;
-  private final LinkedList<Location> callString;
+  // The context without the last call, null for the empty context
+  private final CallingContext parent;
+  // The last call, null for the empty context
+  private final Location location;
+  private final int depth;
+  private final CallingContext root;
+  private final Map<Location, CallingContext> children = new ConcurrentHashMap<>();
+  // The contexts of the calls in this one when they are made in a call at a location
+  private final Map<Location, CallingContext> enclosing = new ConcurrentHashMap<>();
+  // The context without the first call, computed on demand
+  private volatile CallingContext suffix;
 
-  public CallingContext(int k) {
+  private CallingContext(int k, CallingContext parent, Location location) {
+    this.id = NEXT_ID.getAndIncrement();
     this.k = k;
-    this.callString = new LinkedList<>();
+    this.parent = parent;
+    this.location = location;
+    this.depth = parent == null ? 0 : parent.depth + 1;
+    this.root = parent == null ? this : parent.root;
   }
 
-  CallingContext(CallingContext ctx) {
-    Objects.requireNonNull(ctx);
-    this.k = ctx.k;
-    this.callString = new LinkedList<>(ctx.callString);
+  /**
+   * Returns the empty context of contexts with at most {@code k} calls.
+   * @throws IllegalArgumentException if {@code k} is negative
+   */
+  public static CallingContext root(int k) {
+    if (k < 0) {
+      throw new IllegalArgumentException("context depth must not be negative: " + k);
+    }
+    return roots.computeIfAbsent(k, depth -> new CallingContext(depth, null, null));
+  }
+
+  /**
+   * Forgets all contexts, so that the statements of earlier Scenes are no longer kept.
+   * Contexts created before are different from the ones created afterwards.
+   */
+  public static void reset() {
+    roots = new ConcurrentHashMap<>();
   }
 
   public CallingContext push(SootMethod m, Stmt s) {
-    CallingContext ctx = new CallingContext(this);
-    if (ctx.k > 0) {
-      ctx.callString.addLast(new Location(m, s));
-      if (ctx.callString.size() > ctx.k) {
-        ctx.callString.removeFirst();
+    if (k == 0) {
+      return this;
+    }
+    Location loc = new Location(m, s);
+    return depth < k ? child(loc) : suffix().child(loc);
+  }
+
+  /**
+   * Returns the context of the calls in this context when they are made in the call at {@code call},
+   * i.e. the context in which that call is the oldest one. If this context has k calls already,
+   * then the call is not kept and this context is returned.
+   */
+  public CallingContext enclose(Location call) {
+    if (depth >= k) {
+      return this;
+    }
+    return enclosing.computeIfAbsent(call, c -> {
+      CallingContext ctx = root.child(c);
+      for (Location loc : getCallString()) {
+        ctx = ctx.child(loc);
       }
+      return ctx;
+    });
+  }
+
+  private CallingContext child(Location loc) {
+    return children.computeIfAbsent(loc, l -> new CallingContext(k, this, l));
+  }
+
+  private CallingContext suffix() {
+    CallingContext result = suffix;
+    if (result == null) {
+      result = parent.depth == 0 ? parent : parent.suffix().child(location);
+      suffix = result;
+    }
+    return result;
+  }
+
+  int getMaxDepth() {
+    return k;
+  }
+
+  /**
+   * Returns the unique id of this context.
+   */
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Returns the locations of the calls in this context, the oldest first.
+   */
+  List<Location> getCallString() {
+    List<Location> callString = new ArrayList<>(depth);
+    for (CallingContext ctx = this; ctx.location != null; ctx = ctx.parent) {
+      callString.add(ctx.location);
     }
-    return ctx;
+    Collections.reverse(callString);
+    return Collections.unmodifiableList(callString);
   }
 
   public String toString() {
     StringBuilder str = new StringBuilder();
-    for (Location p : callString) {
+    for (Location p : getCallString()) {
       str.append("in call from ").append(p);
     }
     return str.toString();
@@ -44,15 +136,12 @@ public final class CallingContext {
 
   @Override
   public boolean equals(Object o) {
-    if (this == o) return true;
-    if (o == null || getClass() != o.getClass()) return false;
-    CallingContext that = (CallingContext) o;
-    return k == that.k &&
-            callString.equals(that.callString);
+    // contexts are interned
+    return this == o;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(k, callString);
+    return id;
   }
 }
@@ -5,9 +5,9 @@ import regiontypeinference.region.Regions;
 import soot.SootField;
 
 import javax.annotation.concurrent.Immutable;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -15,9 +15,17 @@ import java.util.stream.Collectors;
  * <p>
  * This class is meant purely for data representation.
  * It does not enforce any well-formedness invariants.
+ * <p>
+ * Besides the map from regions and fields to regions, the table keeps a reverse index from each region
+ * to the fields that may contain it, see {@link #keysContaining}. The index is built when it is first used
+ * and dropped by the changes of the table through its methods; changes through the views of the table
+ * are not supported.
  */
 public final class FieldTable extends HashMap<FieldTable.Key, Regions> {
 
+  // member region -> keys whose regions contain it
+  private transient Map<Region, List<Key>> keysContaining = null;
+
   public FieldTable() {
     super();
   }
@@ -26,6 +34,102 @@ public final class FieldTable extends HashMap<FieldTable.Key, Regions> {
     super(other);
   }
 
+  /**
+   * Returns the keys of the fields whose regions contain {@code r}.
+   */
+  public List<Key> keysContaining(Region r) {
+    if (keysContaining == null) {
+      Map<Region, List<Key>> index = new HashMap<>();
+      for (Map.Entry<Key, Regions> entry : entrySet()) {
+        for (Region member : entry.getValue().toSet()) {
+          index.computeIfAbsent(member, m -> new ArrayList<>()).add(entry.getKey());
+        }
+      }
+      keysContaining = index;
+    }
+    return keysContaining.getOrDefault(r, Collections.emptyList());
+  }
+
+  @Override
+  public Regions put(Key key, Regions value) {
+    keysContaining = null;
+    return super.put(key, value);
+  }
+
+  @Override
+  public void putAll(Map<? extends Key, ? extends Regions> m) {
+    keysContaining = null;
+    super.putAll(m);
+  }
+
+  @Override
+  public Regions putIfAbsent(Key key, Regions value) {
+    keysContaining = null;
+    return super.putIfAbsent(key, value);
+  }
+
+  @Override
+  public Regions remove(Object key) {
+    keysContaining = null;
+    return super.remove(key);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    keysContaining = null;
+    return super.remove(key, value);
+  }
+
+  @Override
+  public void clear() {
+    keysContaining = null;
+    super.clear();
+  }
+
+  @Override
+  public Regions replace(Key key, Regions value) {
+    keysContaining = null;
+    return super.replace(key, value);
+  }
+
+  @Override
+  public boolean replace(Key key, Regions oldValue, Regions newValue) {
+    keysContaining = null;
+    return super.replace(key, oldValue, newValue);
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super Key, ? super Regions, ? extends Regions> function) {
+    keysContaining = null;
+    super.replaceAll(function);
+  }
+
+  @Override
+  public Regions computeIfAbsent(Key key, Function<? super Key, ? extends Regions> mappingFunction) {
+    keysContaining = null;
+    return super.computeIfAbsent(key, mappingFunction);
+  }
+
+  @Override
+  public Regions computeIfPresent(Key key,
+                                  BiFunction<? super Key, ? super Regions, ? extends Regions> remappingFunction) {
+    keysContaining = null;
+    return super.computeIfPresent(key, remappingFunction);
+  }
+
+  @Override
+  public Regions compute(Key key, BiFunction<? super Key, ? super Regions, ? extends Regions> remappingFunction) {
+    keysContaining = null;
+    return super.compute(key, remappingFunction);
+  }
+
+  @Override
+  public Regions merge(Key key, Regions value,
+                       BiFunction<? super Regions, ? super Regions, ? extends Regions> remappingFunction) {
+    keysContaining = null;
+    return super.merge(key, value, remappingFunction);
+  }
+
   @Override
   public String toString() {
     StringBuilder buffer = new StringBuilder();
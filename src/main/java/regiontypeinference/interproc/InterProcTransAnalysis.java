@@ -1,6 +1,9 @@
 package regiontypeinference.interproc;
 
+import regiontypeinference.MockInfo;
+import regiontypeinference.intraproc.BlockTransformationAnalysis;
 import regiontypeinference.intraproc.Environment;
+import regiontypeinference.intraproc.TransferCache;
 import regiontypeinference.intraproc.TransformationAnalysis;
 import regiontypeinference.policy.Policy;
 import regiontypeinference.transformation.Term;
@@ -9,9 +12,16 @@ import regiontypeinference.region.Regions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import soot.Body;
+import soot.Scene;
 import soot.SootMethod;
 import soot.SootMethodRef;
-import soot.toolkits.graph.BriefUnitGraph;
+import soot.Unit;
+import soot.jimple.DynamicInvokeExpr;
+import soot.jimple.Stmt;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class InterProcTransAnalysis {
@@ -19,67 +29,354 @@ public class InterProcTransAnalysis {
     private static boolean SHOW_TABLE = Boolean.valueOf(System.getenv().getOrDefault("SHOW_TABLE", "false"));
     private AbstractMethodTable table;
     private SootMethodRef entryPointRef;
+    private int threads = 1;
+    private boolean printResult = true;
+    private boolean blockLevel = false;
+    private SummaryStore summaryStore = null;
+    // Number of changes of an entry after which it is widened, or null if it is only widened at the maximum iteration
+    private Integer wideningDelay = null;
+    // Configuration under which the entries are kept in the summary store
+    private final String summarySalt;
+    // Number of times that each method has been analysed
+    private final Map<SootMethodRef, Integer> iterations = new HashMap<>();
+    // Transfers of the statements and blocks, reused when methods are re-analysed
+    private final TransferCache transfers = new TransferCache();
 
     private final Logger logger = LoggerFactory.getLogger(InterProcTransAnalysis.class);
 
     public InterProcTransAnalysis(Policy policy, int maxContextDepth, SootMethod entryPoint) {
-        table = new AbstractMethodTable(policy, maxContextDepth, entryPoint);
+        this(policy, maxContextDepth, entryPoint, new CFGCache(MockInfo.v()));
+    }
+
+    /**
+     * Creates the analysis of {@code entryPoint} with a cache that can be shared with the
+     * analyses of other entry methods in the same Scene.
+     */
+    public InterProcTransAnalysis(Policy policy, int maxContextDepth, SootMethod entryPoint, CFGCache cfgCache) {
+        table = new AbstractMethodTable(policy, maxContextDepth, entryPoint, cfgCache);
         entryPointRef = entryPoint.makeRef();
         table.ensurePresent(entryPointRef);
+        summarySalt = SummaryStore.hash(policy.getClass().getName() + "\n" + maxContextDepth + "\n"
+                + entryPointRef.getSignature());
+    }
+
+    /**
+     * Sets the number of threads analysing methods. With more than one thread, the methods
+     * on the worklist are analysed in parallel rounds, see {@link #analyzeInRounds}.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
     }
 
-    public boolean analyze(int maximumIteration) {
-        int iteration = 0;
-        while (true) {
-            AbstractMethodTable old = new AbstractMethodTable(table);
-            logger.trace("======== Iteration: " + iteration + "\n");
-            logger.trace("At the beginning of iteration, old table: \n" + old);
+    /**
+     * Sets whether {@link #analyze} prints the result to the standard output, which it does by default.
+     */
+    public void setPrintResult(boolean printResult) {
+        this.printResult = printResult;
+    }
 
-            for (SootMethodRef m : old.keySet()) {
+    /**
+     * Sets whether the methods are analysed on their basic blocks, see {@link BlockTransformationAnalysis},
+     * rather than on their single statements, which is the default.
+     */
+    public void setBlockLevel(boolean blockLevel) {
+        this.blockLevel = blockLevel;
+    }
+
+    /**
+     * Sets the number of changes of a table entry after which its further changes are widened,
+     * so that the fixed point is reached early even if the transformations keep growing.
+     * It must be less than the maximum number of iterations given to {@link #analyze}.
+     */
+    public void setWideningDelay(int wideningDelay) {
+        if (wideningDelay < 0) {
+            throw new IllegalArgumentException("widening delay must not be negative: " + wideningDelay);
+        }
+        this.wideningDelay = wideningDelay;
+        table.setWideningDelay(wideningDelay);
+    }
+
+    /**
+     * Sets the number of calling contexts in which the entry of a method is kept, when the analysis is
+     * context-sensitive. These are the contexts of the first call sites of the method, in the order of
+     * the callers' signatures and of the statements in their bodies. At the further call sites, the entry
+     * is used as computed for the method itself.
+     */
+    public void setMaxContexts(int maxContexts) {
+        if (maxContexts < 0) {
+            throw new IllegalArgumentException("maximum number of contexts must not be negative: " + maxContexts);
+        }
+        table.setMaxContexts(maxContexts);
+    }
+
+    /**
+     * Sets the store from which converged entries are reused and to which they are saved.
+     * Only the methods whose entries are not found in the store, or whose keys have
+     * changed, are analysed.
+     */
+    public void setSummaryStore(SummaryStore summaryStore) {
+        this.summaryStore = summaryStore;
+    }
+
+    /**
+     * Computes the table by a worklist iteration: a method is re-analysed only if
+     * an entry that its analysis has read has changed. Once a method has been re-analysed
+     * {@code maximumIteration} times, the entries that it updates are widened from then on,
+     * see {@link AbstractMethodTable#forceWidening}, so that the fixed point is always reached.
+     * @param maximumIteration number of times that a single method is re-analysed before its entries are widened
+     */
+    public void analyze(int maximumIteration) {
+        if (maximumIteration < 0) {
+            throw new IllegalArgumentException("maximum number of iterations must not be negative: "
+                    + maximumIteration);
+        }
+        if (wideningDelay != null && wideningDelay >= maximumIteration) {
+            throw new IllegalArgumentException("widening delay " + wideningDelay
+                    + " must be less than the maximum number of iterations " + maximumIteration);
+        }
+        MethodWorklist worklist = new MethodWorklist();
+        table.setObserver(worklist);
+        worklist.addAll(table.keySet());
+        buildCallGraph(worklist);
+        Map<SootMethodRef, String> summaryKeys = Collections.emptyMap();
+        if (summaryStore != null) {
+            summaryKeys = summaryStore.computeKeys(table, worklist.getDependencies(), summarySalt);
+            summaryStore.seed(table, summaryKeys, summarySalt).forEach(worklist::remove);
+        }
+        if (threads > 1) {
+            analyzeInRounds(worklist, maximumIteration);
+        } else {
+            analyzeStepwise(worklist, maximumIteration);
+        }
+        // Reach the fixed point
+        if (summaryStore != null) {
+            summaryStore.save(table, summaryKeys, summarySalt);
+        }
+        if (SHOW_TABLE) {
+            System.out.println("Resulting table:");
+            System.out.println(table);
+        }
+        if (printResult) {
+            printResult();
+        }
+    }
+
+    /**
+     * Adds the dependencies between the methods reachable from the table to the worklist before
+     * any method is analysed, so that the first pass already follows the bottom-up order.
+     * The callees are the methods of the invoke expressions in the bodies, which
+     * {@code TransformationAnalysis} looks up in the table. Their call sites are recorded in the
+     * table in the order of the callers' signatures and of the statements in their bodies, see
+     * {@link AbstractMethodTable#addCallSite}.
+     */
+    private void buildCallGraph(MethodWorklist worklist) {
+        Set<SootMethodRef> done = new HashSet<>();
+        List<SootMethodRef> todo = new ArrayList<>(table.keySet());
+        while (!todo.isEmpty()) {
+            todo.sort(Comparator.comparing(SootMethodRef::getSignature));
+            for (SootMethodRef m : todo) {
+                done.add(m);
                 Body body = table.getBody(m);
-                if (body != null) {
-                    BriefUnitGraph graph = new BriefUnitGraph(body);
-                    new TransformationAnalysis(graph, table, m);
+                if (body == null) {
+                    continue;
+                }
+                for (Unit u : body.getUnits()) {
+                    Stmt s = (Stmt) u;
+                    if (s.containsInvokeExpr() && !(s.getInvokeExpr() instanceof DynamicInvokeExpr)) {
+                        SootMethodRef callee = s.getInvokeExpr().getMethodRef();
+                        table.ensurePresent(callee);
+                        worklist.addDependency(m, callee);
+                        table.addCallSite(callee, new Location(body.getMethod(), s));
+                    }
+                }
+                for (SootMethodRef target : table.joinTargets(m)) {
+                    if (!target.equals(m)) {
+                        worklist.addDependency(target, m);
+                    }
                 }
-                // Methods without a body already have their default transformations in the table.
             }
-            if (SHOW_TABLE) {
-                System.out.println("Table at iteration " + iteration + ":");
+            todo = new ArrayList<>(table.keySet());
+            todo.removeAll(done);
+        }
+    }
+
+    /**
+     * Analyses the methods on the worklist one after the other.
+     */
+    private void analyzeStepwise(MethodWorklist worklist, int maximumIteration) {
+        int step = 0;
+        while (!worklist.isEmpty()) {
+            SootMethodRef m = worklist.poll();
+            countIteration(m, maximumIteration);
+            logger.trace("======== Step " + step + ": analysing " + m + "\n");
+
+            long lastVersion = table.getLastVersion();
+            analyzeMethod(m);
+            if (SHOW_TABLE && table.getLastVersion() != lastVersion) {
+                System.out.println("Table at step " + step + " after analysing " + m.getName() + ":");
                 System.out.println(table);
             }
-            // Reach the fixed point
-            if (old.equals(table)) {
-                if (SHOW_TABLE) {
-                    System.out.println("Resulting table:");
-                    System.out.println(table);
+            step++;
+        }
+    }
+
+    /**
+     * Analyses all methods on the worklist in parallel rounds. The analyses of one round
+     * read the table as it was at the start of the round; their results are joined into
+     * the table at the end of the round. As the join is associative and commutative,
+     * the same fixed point as in {@link #analyzeStepwise} is reached.
+     */
+    private void analyzeInRounds(MethodWorklist worklist, int maximumIteration) {
+        // Soot builds the hierarchies lazily, which must not happen in several threads at once.
+        Scene.v().getActiveHierarchy();
+        Scene.v().getOrMakeFastHierarchy();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            int round = 0;
+            while (!worklist.isEmpty()) {
+                List<SootMethodRef> methods = worklist.pollAll();
+                for (SootMethodRef m : methods) {
+                    countIteration(m, maximumIteration);
                 }
+                logger.trace("======== Round " + round + ": analysing " + methods.size() + " methods\n");
 
-                System.out.println("Analysis result of the method " + entryPointRef);
-
-                TransAndTerm tt = table.get(entryPointRef);
-                Transformation trans = tt.getTrans();
-                Term term = tt.getTerm();
-                Transformation.EnvironmentAndFieldTable envft = trans.instantiate();
-                Environment env = envft.getEnvironment();
-                FieldTable ft = envft.getFieldTable();
-                Regions r = tt.getTerm().instantiate(env, ft);
-                //if (! r.toSet().isEmpty()) {
-                System.out.println("  Transformation: " + trans);
-                if (!trans.equals(trans.removeJimpleLocals())) {
-                    System.out.println("  Transformation ignoring the Jimple variables: " + trans.removeJimpleLocals());
+                table.startRound();
+                try {
+                    pool.submit(() -> methods.parallelStream().forEach(this::analyzeMethod)).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted in round " + round, e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException("Analysis failed in round " + round, e.getCause());
+                } finally {
+                    table.finishRound();
                 }
-                System.out.println("  Type term: " + term);
-                System.out.println("  Input environment: ()");
-                System.out.println("  Output environment: " + env);
-                System.out.println("  Output field table: " + ft);
-                System.out.println("  Output type: " + r);
-                //}
-                return true;
-            }
-            if (iteration++ >= maximumIteration) {
-                System.out.println("Failed: the computation doesn't converge within " + maximumIteration + "iterations.");
-                return false;
+                if (SHOW_TABLE) {
+                    System.out.println("Table at round " + round + ":");
+                    System.out.println(table);
+                }
+                round++;
             }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Counts the analysis of {@code m}, and widens the entries that it updates once it is
+     * re-analysed more than {@code maximumIteration} times.
+     */
+    private void countIteration(SootMethodRef m, int maximumIteration) {
+        if (iterations.merge(m, 1, Integer::sum) - 1 == maximumIteration + 1) {
+            logger.debug("widening the entries of " + m + " after " + maximumIteration + " iterations");
+            table.forceWidening(m);
+        }
+    }
+
+    private void analyzeMethod(SootMethodRef m) {
+        // Methods without a body already have their default transformations in the table.
+        if (table.getBody(m) == null) {
+            return;
+        }
+        if (blockLevel) {
+            new BlockTransformationAnalysis(table.getBlockGraph(m), table, m, transfers);
+        } else {
+            new TransformationAnalysis(table.getGraph(m), table, m, transfers);
+        }
+    }
+
+    private void printResult() {
+        System.out.println("Analysis result of the method " + entryPointRef);
+
+        Result result = getResult();
+        Transformation trans = result.getTransformation();
+        //if (! r.toSet().isEmpty()) {
+        System.out.println("  Transformation: " + trans);
+        if (!trans.equals(trans.removeJimpleLocals())) {
+            System.out.println("  Transformation ignoring the Jimple variables: " + trans.removeJimpleLocals());
+        }
+        System.out.println("  Type term: " + result.getTypeTerm());
+        System.out.println("  Input environment: ()");
+        System.out.println("  Output environment: " + result.getOutputEnvironment());
+        System.out.println("  Output field table: " + result.getOutputFieldTable());
+        System.out.println("  Output type: " + result.getOutputType());
+        //}
+        if (!result.getWidenedEntries().isEmpty()) {
+            StringJoiner names = new StringJoiner(", ");
+            result.getWidenedEntries().forEach(m -> names.add(m.getDeclaringClass().getShortName() + "." + m.getName()));
+            System.out.println("  Widened entries: " + names);
+        }
+    }
+
+    /**
+     * Returns the result for the entry method, instantiated with the empty input environment.
+     * The analysis must have been run, see {@link #analyze}.
+     */
+    public Result getResult() {
+        TransAndTerm tt = table.get(entryPointRef);
+        Transformation.EnvironmentAndFieldTable envft = tt.getTrans().instantiate();
+        Environment env = envft.getEnvironment();
+        FieldTable ft = envft.getFieldTable();
+        Regions r = tt.getTerm().instantiate(env, ft);
+        return new Result(entryPointRef, tt.getTrans(), tt.getTerm(), env, ft, r,
+                new LinkedHashSet<>(table.getWidenedEntries()));
+    }
+
+    /**
+     * Analysis result of an entry method.
+     */
+    public static final class Result {
+        private final SootMethodRef method;
+        private final Transformation transformation;
+        private final Term typeTerm;
+        private final Environment outputEnvironment;
+        private final FieldTable outputFieldTable;
+        private final Regions outputType;
+        private final Set<SootMethodRef> widenedEntries;
+
+        Result(SootMethodRef method, Transformation transformation, Term typeTerm, Environment outputEnvironment,
+               FieldTable outputFieldTable, Regions outputType, Set<SootMethodRef> widenedEntries) {
+            this.method = method;
+            this.transformation = transformation;
+            this.typeTerm = typeTerm;
+            this.outputEnvironment = outputEnvironment;
+            this.outputFieldTable = outputFieldTable;
+            this.outputType = outputType;
+            this.widenedEntries = widenedEntries;
+        }
+
+        public SootMethodRef getMethod() {
+            return method;
+        }
+
+        public Transformation getTransformation() {
+            return transformation;
+        }
+
+        public Term getTypeTerm() {
+            return typeTerm;
+        }
+
+        public Environment getOutputEnvironment() {
+            return outputEnvironment;
+        }
+
+        public FieldTable getOutputFieldTable() {
+            return outputFieldTable;
+        }
+
+        public Regions getOutputType() {
+            return outputType;
+        }
+
+        /**
+         * Returns the methods whose entries have been widened, and thus may be less precise.
+         */
+        public Set<SootMethodRef> getWidenedEntries() {
+            return widenedEntries;
         }
     }
 
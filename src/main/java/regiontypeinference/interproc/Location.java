@@ -17,6 +17,14 @@ public final class Location {
     this.location = Objects.requireNonNull(location);
   }
 
+  public SootMethod getMethod() {
+    return method;
+  }
+
+  public Stmt getStmt() {
+    return location;
+  }
+
   @Override
   public String toString() {
     final StringBuilder sb = new StringBuilder();
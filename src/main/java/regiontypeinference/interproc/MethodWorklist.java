@@ -0,0 +1,124 @@
+package regiontypeinference.interproc;
+
+import soot.SootMethodRef;
+
+import java.util.*;
+
+/**
+ * Worklist of the methods whose transformations have to be (re)computed.
+ * <p>
+ * It records which methods read which entries of the abstract method table, so that a change
+ * of an entry re-queues only the methods that have read it, rather than all methods.
+ * <p>
+ * The methods are scheduled bottom-up: a method depends on the entries it reads and an entry
+ * depends on the methods whose analyses update it. Queued methods are taken in the reverse
+ * topological order of the strongly connected components of this dependency graph, so that
+ * callees are analysed before their callers and only recursive components are iterated.
+ */
+final class MethodWorklist implements AbstractMethodTable.Observer {
+
+    private final Set<SootMethodRef> queue = new LinkedHashSet<>();
+    // entry -> methods whose analyses have read the entry
+    private final Map<SootMethodRef, Set<SootMethodRef>> readers = new HashMap<>();
+    // m -> entries read by the analysis of m, and methods whose analyses update the entry of m
+    private final Map<SootMethodRef, Set<SootMethodRef>> dependencies = new HashMap<>();
+    private StronglyConnectedComponents<SootMethodRef> components = null;
+
+    void add(SootMethodRef m) {
+        queue.add(m);
+    }
+
+    void addAll(Collection<SootMethodRef> ms) {
+        queue.addAll(ms);
+    }
+
+    /**
+     * Records that {@code m} depends on {@code dependency}.
+     */
+    void addDependency(SootMethodRef m, SootMethodRef dependency) {
+        if (dependencies.computeIfAbsent(m, k -> new HashSet<>()).add(dependency)) {
+            components = null;
+        }
+    }
+
+    void remove(SootMethodRef m) {
+        queue.remove(m);
+    }
+
+    /**
+     * Returns the dependencies recorded so far: the methods that each method depends on.
+     */
+    Map<SootMethodRef, Set<SootMethodRef>> getDependencies() {
+        return Collections.unmodifiableMap(dependencies);
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Removes and returns a queued method whose component comes first in reverse topological order.
+     */
+    SootMethodRef poll() {
+        StronglyConnectedComponents<SootMethodRef> sccs = getComponents();
+        SootMethodRef next = null;
+        for (SootMethodRef m : queue) {
+            if (next == null || sccs.componentOf(m) < sccs.componentOf(next)) {
+                next = m;
+            }
+        }
+        queue.remove(next);
+        return next;
+    }
+
+    /**
+     * Removes and returns all queued methods on the lowest level of the dependency graph.
+     * The components of these methods do not depend on each other.
+     */
+    List<SootMethodRef> pollAll() {
+        StronglyConnectedComponents<SootMethodRef> sccs = getComponents();
+        int level = Integer.MAX_VALUE;
+        for (SootMethodRef m : queue) {
+            level = Math.min(level, sccs.levelOf(m));
+        }
+        List<SootMethodRef> ms = new ArrayList<>();
+        for (Iterator<SootMethodRef> it = queue.iterator(); it.hasNext(); ) {
+            SootMethodRef m = it.next();
+            if (sccs.levelOf(m) == level) {
+                ms.add(m);
+                it.remove();
+            }
+        }
+        return ms;
+    }
+
+    private StronglyConnectedComponents<SootMethodRef> getComponents() {
+        if (components == null || !queue.stream().allMatch(m -> components.componentOf(m) >= 0)) {
+            Set<SootMethodRef> nodes = new LinkedHashSet<>(dependencies.keySet());
+            nodes.addAll(queue);
+            components = new StronglyConnectedComponents<>(nodes, dependencies);
+        }
+        return components;
+    }
+
+    @Override
+    public void entryRead(SootMethodRef reader, SootMethodRef m) {
+        readers.computeIfAbsent(m, k -> new HashSet<>()).add(reader);
+        addDependency(reader, m);
+    }
+
+    @Override
+    public void entryAdded(SootMethodRef m) {
+        // a new (or reset) entry has to be analysed itself
+        queue.add(m);
+        entryChanged(m, m);
+    }
+
+    @Override
+    public void entryChanged(SootMethodRef m, SootMethodRef source) {
+        if (!m.equals(source)) {
+            addDependency(m, source);
+        }
+        queue.addAll(readers.getOrDefault(m, Collections.emptySet()));
+    }
+}
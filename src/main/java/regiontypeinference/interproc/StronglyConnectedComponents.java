@@ -0,0 +1,116 @@
+package regiontypeinference.interproc;
+
+import java.util.*;
+
+/**
+ * Strongly connected components of a directed graph, computed with Tarjan's algorithm.
+ * <p>
+ * The components are numbered in reverse topological order: if there is an edge from a
+ * node in component {@code i} to a node in component {@code j != i}, then {@code j < i}.
+ * Moreover, each component has a level, which is the length of the longest path to a
+ * component without successors. Distinct components on the same level are not connected.
+ *
+ * @param <N> type of nodes
+ */
+final class StronglyConnectedComponents<N> {
+
+    private final Map<N, Integer> component = new HashMap<>();
+    private final List<Integer> levels = new ArrayList<>();
+
+    /**
+     * @param nodes nodes of the graph
+     * @param succs successors of each node; nodes without entry have no successors
+     */
+    StronglyConnectedComponents(Collection<N> nodes, Map<N, ? extends Collection<N>> succs) {
+        Map<N, Integer> index = new HashMap<>();
+        Map<N, Integer> lowLink = new HashMap<>();
+        Deque<N> stack = new ArrayDeque<>();
+        Set<N> onStack = new HashSet<>();
+        // Depth-first search with an explicit stack of successor iterators
+        Deque<N> path = new ArrayDeque<>();
+        Deque<Iterator<N>> iterators = new ArrayDeque<>();
+
+        for (N root : nodes) {
+            if (index.containsKey(root)) {
+                continue;
+            }
+            visit(root, index, lowLink, stack, onStack, path, iterators, succs);
+            while (!path.isEmpty()) {
+                N n = path.peek();
+                Iterator<N> it = iterators.peek();
+                if (it.hasNext()) {
+                    N succ = it.next();
+                    if (!index.containsKey(succ)) {
+                        visit(succ, index, lowLink, stack, onStack, path, iterators, succs);
+                    } else if (onStack.contains(succ)) {
+                        lowLink.put(n, Math.min(lowLink.get(n), index.get(succ)));
+                    }
+                    continue;
+                }
+                path.pop();
+                iterators.pop();
+                if (!path.isEmpty()) {
+                    N parent = path.peek();
+                    lowLink.put(parent, Math.min(lowLink.get(parent), lowLink.get(n)));
+                }
+                if (lowLink.get(n).equals(index.get(n))) {
+                    popComponent(n, stack, onStack, succs);
+                }
+            }
+        }
+    }
+
+    private void visit(N n, Map<N, Integer> index, Map<N, Integer> lowLink, Deque<N> stack, Set<N> onStack,
+                       Deque<N> path, Deque<Iterator<N>> iterators, Map<N, ? extends Collection<N>> succs) {
+        index.put(n, index.size());
+        lowLink.put(n, index.get(n));
+        stack.push(n);
+        onStack.add(n);
+        path.push(n);
+        Collection<N> ns = succs.get(n);
+        iterators.push(ns == null ? Collections.emptyIterator() : ns.iterator());
+    }
+
+    private void popComponent(N root, Deque<N> stack, Set<N> onStack, Map<N, ? extends Collection<N>> succs) {
+        int id = levels.size();
+        List<N> members = new ArrayList<>();
+        N n;
+        do {
+            n = stack.pop();
+            onStack.remove(n);
+            component.put(n, id);
+            members.add(n);
+        } while (!n.equals(root));
+        // All successor components are complete, since they come first in reverse topological order
+        int level = 0;
+        for (N m : members) {
+            Collection<N> ns = succs.get(m);
+            if (ns == null) {
+                continue;
+            }
+            for (N succ : ns) {
+                int c = component.get(succ);
+                if (c != id) {
+                    level = Math.max(level, levels.get(c) + 1);
+                }
+            }
+        }
+        levels.add(level);
+    }
+
+    /**
+     * Returns the number of the component of {@code n} in reverse topological order,
+     * or -1 if {@code n} is not a node of the graph.
+     */
+    int componentOf(N n) {
+        return component.getOrDefault(n, -1);
+    }
+
+    /**
+     * Returns the level of the component of {@code n}, or -1 if {@code n} is not a node of the graph.
+     */
+    int levelOf(N n) {
+        Integer c = component.get(n);
+        return c == null ? -1 : levels.get(c);
+    }
+}
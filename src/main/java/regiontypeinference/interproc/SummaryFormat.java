@@ -0,0 +1,533 @@
+package regiontypeinference.interproc;
+
+import regiontypeinference.region.*;
+import regiontypeinference.transformation.*;
+import soot.*;
+import soot.jimple.NewExpr;
+import soot.jimple.Stmt;
+
+import java.util.*;
+
+/**
+ * Stable textual form of the entries of the abstract method table.
+ * <p>
+ * An entry is written as an s-expression that refers to Soot objects only by name:
+ * a local by the signature of the method whose body declares it and its name,
+ * a field by its signature and a statement by the signature of its method and its
+ * index in the body. Reading an entry resolves these names in the current scene.
+ * <pre>
+ *   entry  ::= (tt trans term [widened])
+ *   trans  ::= (bottom) | (trans (key term)*)
+ *   term   ::= (term atom*)
+ *   atom   ::= (var "method" "local") | (varfield "method" "local" graph)
+ *            | (region region) | (regionfield region graph)
+ *   graph  ::= (graph "head" "tail" (edge "source" "target")*)
+ *   region ::= (alloc (ctx k loc*) loc) | (exception ["class"]) | (input n) | (special NAME)
+ *   loc    ::= (loc "method" n)
+ * </pre>
+ * The optional {@code widened} marks an entry that has been widened, and thus may be less precise.
+ * An instance caches the names of the bodies it has seen; it is not thread-safe.
+ */
+final class SummaryFormat {
+
+    // Locals and statements of the bodies whose locals have been written
+    private final Map<Local, Body> owners = new IdentityHashMap<>();
+    private final Map<Body, Map<Unit, Integer>> stmtIndexes = new IdentityHashMap<>();
+    // Locals and statements of the bodies that have been read
+    private final Map<String, Body> bodies = new HashMap<>();
+    private final Map<Body, Map<String, Local>> localsByName = new IdentityHashMap<>();
+    private final Map<Body, List<Unit>> stmtsByIndex = new IdentityHashMap<>();
+
+    /**
+     * @param knownBodies the bodies that declare the locals occurring in the entries to be written
+     */
+    SummaryFormat(Collection<Body> knownBodies) {
+        for (Body body : knownBodies) {
+            for (Local l : body.getLocals()) {
+                owners.put(l, body);
+            }
+        }
+    }
+
+    /**
+     * Thrown if an entry refers to something that cannot be named or resolved.
+     */
+    static final class FormatException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        FormatException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An entry together with whether it has been widened.
+     */
+    static final class Entry {
+        private final TransAndTerm tt;
+        private final boolean widened;
+
+        Entry(TransAndTerm tt, boolean widened) {
+            this.tt = tt;
+            this.widened = widened;
+        }
+
+        TransAndTerm getTransAndTerm() {
+            return tt;
+        }
+
+        boolean isWidened() {
+            return widened;
+        }
+    }
+
+    // ---------------------------------------------------------------- writing
+
+    String write(TransAndTerm tt) throws FormatException {
+        return write(tt, false);
+    }
+
+    String write(TransAndTerm tt, boolean widened) throws FormatException {
+        StringBuilder sb = new StringBuilder("(tt ");
+        writeTrans(sb, tt.getTrans());
+        sb.append(' ');
+        writeTerm(sb, tt.getTerm());
+        if (widened) {
+            sb.append(" widened");
+        }
+        return sb.append(')').toString();
+    }
+
+    private void writeTrans(StringBuilder sb, Transformation trans) throws FormatException {
+        if (trans.isBottom()) {
+            sb.append("(bottom)");
+            return;
+        }
+        sb.append("(trans");
+        for (Map.Entry<Key, Term> entry : trans.getAssigns().entrySet()) {
+            sb.append(" (");
+            writeAtom(sb, (Atom) entry.getKey());
+            sb.append(' ');
+            writeTerm(sb, entry.getValue());
+            sb.append(')');
+        }
+        sb.append(')');
+    }
+
+    private void writeTerm(StringBuilder sb, Term term) throws FormatException {
+        sb.append("(term");
+        for (Atom a : term.getAtoms()) {
+            sb.append(' ');
+            writeAtom(sb, a);
+        }
+        sb.append(')');
+    }
+
+    private void writeAtom(StringBuilder sb, Atom a) throws FormatException {
+        if (a instanceof VariableAtom) {
+            sb.append("(var ");
+            writeLocal(sb, ((VariableAtom) a).getVar());
+        } else if (a instanceof VariableFieldAtom) {
+            sb.append("(varfield ");
+            writeLocal(sb, ((VariableFieldAtom) a).getVar());
+            sb.append(' ');
+            writeGraph(sb, ((VariableFieldAtom) a).getGraph());
+        } else if (a instanceof RegionAtom) {
+            sb.append("(region ");
+            writeRegion(sb, ((RegionAtom) a).getRegion());
+        } else if (a instanceof RegionFieldAtom) {
+            sb.append("(regionfield ");
+            writeRegion(sb, ((RegionFieldAtom) a).getRegion());
+            sb.append(' ');
+            writeGraph(sb, ((RegionFieldAtom) a).getGraph());
+        } else {
+            throw new FormatException("unknown atom " + a);
+        }
+        sb.append(')');
+    }
+
+    private void writeLocal(StringBuilder sb, Local l) throws FormatException {
+        Body body = owners.get(l);
+        if (body == null) {
+            throw new FormatException("no body declares the local " + l);
+        }
+        writeString(sb, body.getMethod().getSignature());
+        sb.append(' ');
+        writeString(sb, l.getName());
+    }
+
+    private void writeGraph(StringBuilder sb, FieldGraph g) {
+        sb.append("(graph ");
+        writeString(sb, g.getHead().getSignature());
+        sb.append(' ');
+        writeString(sb, g.getTail().getSignature());
+        for (FieldGraph.Edge e : g.getEdges()) {
+            sb.append(" (edge ");
+            writeString(sb, e.getSource().getSignature());
+            sb.append(' ');
+            writeString(sb, e.getTarget().getSignature());
+            sb.append(')');
+        }
+        sb.append(')');
+    }
+
+    private void writeRegion(StringBuilder sb, Region r) throws FormatException {
+        if (r instanceof AllocationSiteRegion) {
+            AllocationSiteRegion ar = (AllocationSiteRegion) r;
+            CallingContext ctx = ar.getCallingContext();
+            sb.append("(alloc (ctx ").append(ctx.getMaxDepth());
+            for (Location loc : ctx.getCallString()) {
+                sb.append(' ');
+                writeLocation(sb, loc);
+            }
+            sb.append(") ");
+            writeLocation(sb, ar.getLocation());
+            sb.append(')');
+        } else if (r instanceof ExceptionRegion) {
+            SootClass c = ((ExceptionRegion) r).getSootClass();
+            sb.append("(exception");
+            if (c != null) {
+                sb.append(' ');
+                writeString(sb, c.getName());
+            }
+            sb.append(')');
+        } else if (r instanceof InputRegion) {
+            sb.append("(input ").append(((InputRegion) r).getId()).append(')');
+        } else if (r instanceof SpecialRegion) {
+            sb.append("(special ").append(((SpecialRegion) r).name()).append(')');
+        } else {
+            throw new FormatException("unknown region " + r);
+        }
+    }
+
+    private void writeLocation(StringBuilder sb, Location loc) throws FormatException {
+        SootMethod m = loc.getMethod();
+        if (!m.hasActiveBody()) {
+            throw new FormatException("no body for the location " + loc);
+        }
+        Body body = m.getActiveBody();
+        Map<Unit, Integer> index = stmtIndexes.computeIfAbsent(body, b -> {
+            Map<Unit, Integer> map = new IdentityHashMap<>();
+            for (Unit u : b.getUnits()) {
+                map.put(u, map.size());
+            }
+            return map;
+        });
+        Integer i = index.get(loc.getStmt());
+        if (i == null) {
+            throw new FormatException("statement not in body of " + m + ": " + loc.getStmt());
+        }
+        sb.append("(loc ");
+        writeString(sb, m.getSignature());
+        sb.append(' ').append(i).append(')');
+    }
+
+    private static void writeString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    TransAndTerm read(String s) throws FormatException {
+        return readEntry(s).getTransAndTerm();
+    }
+
+    Entry readEntry(String s) throws FormatException {
+        List<Object> tt = list(new Parser(s).parse(), "tt", 3);
+        boolean widened = false;
+        if (tt.size() == 4 && tt.get(3).equals("widened")) {
+            widened = true;
+        } else if (tt.size() != 3) {
+            throw new FormatException("malformed entry " + tt);
+        }
+        return new Entry(new TransAndTerm(readTrans(tt.get(1)), readTerm(tt.get(2))), widened);
+    }
+
+    private Transformation readTrans(Object o) throws FormatException {
+        List<Object> l = list(o);
+        if (l.get(0).equals("bottom")) {
+            return Transformation.bottom();
+        }
+        list(o, "trans", 1);
+        Map<Key, Term> assigns = new HashMap<>();
+        for (Object entry : l.subList(1, l.size())) {
+            List<Object> kv = list(entry);
+            if (kv.size() != 2) {
+                throw new FormatException("malformed assignment " + entry);
+            }
+            Atom key = readAtom(kv.get(0));
+            if (!(key instanceof Key)) {
+                throw new FormatException("not a key " + kv.get(0));
+            }
+            assigns.put((Key) key, readTerm(kv.get(1)));
+        }
+        return Transformation.of(assigns);
+    }
+
+    private Term readTerm(Object o) throws FormatException {
+        List<Object> l = list(o, "term", 1);
+        Set<Atom> atoms = new HashSet<>();
+        for (Object a : l.subList(1, l.size())) {
+            atoms.add(readAtom(a));
+        }
+        return Term.of(atoms);
+    }
+
+    private Atom readAtom(Object o) throws FormatException {
+        List<Object> l = list(o);
+        switch (String.valueOf(l.get(0))) {
+            case "var":
+                list(o, "var", 3);
+                return VariableAtom.of(readLocal(l.get(1), l.get(2)));
+            case "varfield":
+                list(o, "varfield", 4);
+                return VariableFieldAtom.of(readLocal(l.get(1), l.get(2)), readGraph(l.get(3)));
+            case "region":
+                list(o, "region", 2);
+                return RegionAtom.of(readRegion(l.get(1)));
+            case "regionfield":
+                list(o, "regionfield", 3);
+                return RegionFieldAtom.of(readRegion(l.get(1)), readGraph(l.get(2)));
+            default:
+                throw new FormatException("unknown atom " + o);
+        }
+    }
+
+    private Local readLocal(Object method, Object name) throws FormatException {
+        Body body = readBody(method);
+        Map<String, Local> locals = localsByName.computeIfAbsent(body, b -> {
+            Map<String, Local> map = new HashMap<>();
+            for (Local l : b.getLocals()) {
+                map.put(l.getName(), l);
+            }
+            return map;
+        });
+        Local l = locals.get(string(name));
+        if (l == null) {
+            throw new FormatException("no local " + name + " in " + method);
+        }
+        return l;
+    }
+
+    private FieldGraph readGraph(Object o) throws FormatException {
+        List<Object> l = list(o, "graph", 3);
+        Set<FieldGraph.Edge> edges = new HashSet<>();
+        for (Object e : l.subList(3, l.size())) {
+            List<Object> st = list(e, "edge", 3);
+            edges.add(new FieldGraph.Edge(readField(st.get(1)), readField(st.get(2))));
+        }
+        return FieldGraph.of(readField(l.get(1)), readField(l.get(2)), edges);
+    }
+
+    private SootField readField(Object o) throws FormatException {
+        String sig = string(o);
+        try {
+            return Scene.v().getField(sig);
+        } catch (RuntimeException e) {
+            throw new FormatException("no field " + sig);
+        }
+    }
+
+    private Region readRegion(Object o) throws FormatException {
+        List<Object> l = list(o);
+        switch (String.valueOf(l.get(0))) {
+            case "alloc": {
+                list(o, "alloc", 3);
+                List<Object> ctxList = list(l.get(1), "ctx", 2);
+                int k = number(ctxList.get(1));
+                if (k < 0) {
+                    throw new FormatException("negative context depth " + k);
+                }
+                CallingContext ctx = CallingContext.root(k);
+                for (Object loc : ctxList.subList(2, ctxList.size())) {
+                    Location call = readLocation(loc);
+                    ctx = ctx.push(call.getMethod(), call.getStmt());
+                }
+                Location loc = readLocation(l.get(2));
+                for (ValueBox box : loc.getStmt().getUseBoxes()) {
+                    if (box.getValue() instanceof NewExpr) {
+                        return new AllocationSiteRegion(box.getValue(), ctx, loc);
+                    }
+                }
+                throw new FormatException("no allocation at " + l.get(2));
+            }
+            case "exception": {
+                if (l.size() == 1) {
+                    return new ExceptionRegion(null);
+                }
+                list(o, "exception", 2);
+                String name = string(l.get(1));
+                if (!Scene.v().containsClass(name)) {
+                    throw new FormatException("no class " + name);
+                }
+                return new ExceptionRegion(Scene.v().getSootClass(name));
+            }
+            case "input":
+                list(o, "input", 2);
+                return new InputRegion(number(l.get(1)));
+            case "special":
+                list(o, "special", 2);
+                try {
+                    return SpecialRegion.valueOf(String.valueOf(l.get(1)));
+                } catch (IllegalArgumentException e) {
+                    throw new FormatException("unknown region " + o);
+                }
+            default:
+                throw new FormatException("unknown region " + o);
+        }
+    }
+
+    private Location readLocation(Object o) throws FormatException {
+        List<Object> l = list(o, "loc", 3);
+        Body body = readBody(l.get(1));
+        List<Unit> stmts = stmtsByIndex.computeIfAbsent(body, b -> new ArrayList<>(b.getUnits()));
+        int i = number(l.get(2));
+        if (i < 0 || i >= stmts.size()) {
+            throw new FormatException("no statement " + i + " in " + l.get(1));
+        }
+        return new Location(body.getMethod(), (Stmt) stmts.get(i));
+    }
+
+    private Body readBody(Object method) throws FormatException {
+        String sig = string(method);
+        Body body = bodies.get(sig);
+        if (body == null) {
+            try {
+                // the active body is the one the analysis uses, so that the locals are the same objects
+                body = Scene.v().getMethod(sig).retrieveActiveBody();
+            } catch (RuntimeException e) {
+                throw new FormatException("no body for " + sig);
+            }
+            bodies.put(sig, body);
+        }
+        return body;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object o) throws FormatException {
+        if (!(o instanceof List) || ((List<Object>) o).isEmpty()) {
+            throw new FormatException("expected a non-empty list: " + o);
+        }
+        return (List<Object>) o;
+    }
+
+    private static List<Object> list(Object o, String tag, int minSize) throws FormatException {
+        List<Object> l = list(o);
+        if (!tag.equals(l.get(0)) || l.size() < minSize) {
+            throw new FormatException("expected (" + tag + " ...): " + o);
+        }
+        return l;
+    }
+
+    private static String string(Object o) throws FormatException {
+        if (!(o instanceof Quoted)) {
+            throw new FormatException("expected a string: " + o);
+        }
+        return ((Quoted) o).value;
+    }
+
+    private static int number(Object o) throws FormatException {
+        try {
+            return Integer.parseInt(String.valueOf(o));
+        } catch (NumberFormatException e) {
+            throw new FormatException("expected a number: " + o);
+        }
+    }
+
+    /**
+     * A quoted string, distinguished from the bare words of the s-expressions.
+     */
+    private static final class Quoted {
+        final String value;
+
+        Quoted(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return '"' + value + '"';
+        }
+    }
+
+    /**
+     * Parses an s-expression into nested lists of bare words and {@link Quoted} strings.
+     */
+    private static final class Parser {
+        private final String s;
+        private int pos = 0;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        Object parse() throws FormatException {
+            Object o = next();
+            skipSpaces();
+            if (pos != s.length()) {
+                throw new FormatException("trailing input at " + pos);
+            }
+            return o;
+        }
+
+        private Object next() throws FormatException {
+            skipSpaces();
+            if (pos >= s.length()) {
+                throw new FormatException("unexpected end of input");
+            }
+            char c = s.charAt(pos);
+            if (c == '(') {
+                pos++;
+                List<Object> l = new ArrayList<>();
+                skipSpaces();
+                while (pos < s.length() && s.charAt(pos) != ')') {
+                    l.add(next());
+                    skipSpaces();
+                }
+                if (pos >= s.length()) {
+                    throw new FormatException("unbalanced parentheses");
+                }
+                pos++;
+                return l;
+            } else if (c == '"') {
+                StringBuilder sb = new StringBuilder();
+                pos++;
+                while (pos < s.length() && s.charAt(pos) != '"') {
+                    if (s.charAt(pos) == '\\') {
+                        pos++;
+                    }
+                    if (pos < s.length()) {
+                        sb.append(s.charAt(pos++));
+                    }
+                }
+                if (pos >= s.length()) {
+                    throw new FormatException("unterminated string");
+                }
+                pos++;
+                return new Quoted(sb.toString());
+            } else if (c == ')') {
+                throw new FormatException("unexpected ) at " + pos);
+            } else {
+                int start = pos;
+                while (pos < s.length() && !Character.isWhitespace(s.charAt(pos))
+                        && s.charAt(pos) != '(' && s.charAt(pos) != ')') {
+                    pos++;
+                }
+                return s.substring(start, pos);
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
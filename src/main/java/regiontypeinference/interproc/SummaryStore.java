@@ -0,0 +1,198 @@
+package regiontypeinference.interproc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import soot.Body;
+import soot.SootMethodRef;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Store, usually a file, that keeps the converged entries of the abstract method table across runs.
+ * <p>
+ * Each entry is stored with a key that hashes the Jimple body of the method together
+ * with the keys of all methods it depends on, i.e. its callees and the methods whose
+ * analyses are joined into its entry. A stored entry is only used while its key is the
+ * same, so that changing a method invalidates its own entry and the entries of all
+ * methods that depend on it, directly or indirectly.
+ * <p>
+ * Entries are stored separately for each configuration of the analysis (policy,
+ * context depth and entry point), which is given as a salt.
+ */
+public final class SummaryStore {
+
+    // null if the store is kept in memory only
+    private final Path file;
+    // salt and method signature -> stored key and entry
+    private final Map<String, Stored> entries = new LinkedHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(SummaryStore.class);
+
+    /**
+     * Creates a store that keeps the entries in memory only, e.g. across the Scenes of a long-running process.
+     */
+    public SummaryStore() {
+        this.file = null;
+    }
+
+    /**
+     * Opens the store in {@code file}, which is created when the store is saved for the first time.
+     */
+    public SummaryStore(Path file) {
+        this.file = Objects.requireNonNull(file);
+        if (Files.exists(file)) {
+            try {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    String[] fields = line.split("\t", 4);
+                    if (fields.length == 4) {
+                        entries.put(fields[0] + "\t" + fields[1], new Stored(fields[2], fields[3]));
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("cannot read the summary store " + file, e);
+            }
+        }
+    }
+
+    private static final class Stored {
+        final String key, entry;
+
+        Stored(String key, String entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Computes the keys of the entries of {@code table}.
+     * @param dependencies the methods that each method depends on
+     * @param salt         configuration of the analysis
+     * @return the key of each entry of the table
+     */
+    Map<SootMethodRef, String> computeKeys(AbstractMethodTable table,
+                                           Map<SootMethodRef, ? extends Collection<SootMethodRef>> dependencies,
+                                           String salt) {
+        Set<SootMethodRef> nodes = new LinkedHashSet<>(table.keySet());
+        nodes.addAll(dependencies.keySet());
+        dependencies.values().forEach(nodes::addAll);
+        StronglyConnectedComponents<SootMethodRef> sccs = new StronglyConnectedComponents<>(nodes, dependencies);
+
+        Map<Integer, List<SootMethodRef>> members = new TreeMap<>();
+        for (SootMethodRef m : nodes) {
+            members.computeIfAbsent(sccs.componentOf(m), c -> new ArrayList<>()).add(m);
+        }
+        // The components are numbered callees first, so the keys of the dependencies are known.
+        Map<Integer, String> componentKeys = new HashMap<>();
+        for (Map.Entry<Integer, List<SootMethodRef>> component : members.entrySet()) {
+            SortedSet<String> parts = new TreeSet<>();
+            for (SootMethodRef m : component.getValue()) {
+                parts.add(hash(describe(table, m)));
+                Collection<SootMethodRef> deps = dependencies.get(m);
+                if (deps == null) {
+                    continue;
+                }
+                for (SootMethodRef dep : deps) {
+                    int c = sccs.componentOf(dep);
+                    if (c != component.getKey()) {
+                        parts.add(componentKeys.get(c));
+                    }
+                }
+            }
+            componentKeys.put(component.getKey(), hash(salt + "\n" + String.join("\n", parts)));
+        }
+        Map<SootMethodRef, String> keys = new HashMap<>();
+        for (SootMethodRef m : table.keySet()) {
+            keys.put(m, componentKeys.get(sccs.componentOf(m)));
+        }
+        return keys;
+    }
+
+    /**
+     * Describes what the entry of {@code m} is computed from: the body of the method,
+     * or its kind if it has no body.
+     */
+    private static String describe(AbstractMethodTable table, SootMethodRef m) {
+        Body body = table.getBody(m);
+        return m.getSignature() + "\n" + (body == null ? table.getKind(m).name() :
+                body.getMethod().getSignature() + "\n" + body);
+    }
+
+    /**
+     * Replaces the entries of {@code table} whose keys match the stored ones by the stored entries.
+     * @return the methods whose entries have been replaced
+     */
+    Set<SootMethodRef> seed(AbstractMethodTable table, Map<SootMethodRef, String> keys, String salt) {
+        SummaryFormat format = new SummaryFormat(Collections.emptyList());
+        Set<SootMethodRef> seeded = new HashSet<>();
+        for (Map.Entry<SootMethodRef, String> entry : keys.entrySet()) {
+            SootMethodRef m = entry.getKey();
+            Stored stored = entries.get(salt + "\t" + m.getSignature());
+            if (stored == null || !stored.key.equals(entry.getValue())) {
+                continue;
+            }
+            try {
+                SummaryFormat.Entry read = format.readEntry(stored.entry);
+                table.seed(m, read.getTransAndTerm(), read.isWidened());
+                seeded.add(m);
+            } catch (SummaryFormat.FormatException e) {
+                logger.warn("Ignoring the stored entry of " + m + ": " + e.getMessage());
+            }
+        }
+        logger.info("Reusing " + seeded.size() + " of " + keys.size() + " entries from "
+                + (file == null ? "memory" : file));
+        return seeded;
+    }
+
+    /**
+     * Stores the entries of {@code table} under the given keys and writes the store to its file, if it has one.
+     */
+    void save(AbstractMethodTable table, Map<SootMethodRef, String> keys, String salt) {
+        SummaryFormat format = new SummaryFormat(table.getBodies());
+        for (Map.Entry<SootMethodRef, String> entry : keys.entrySet()) {
+            SootMethodRef m = entry.getKey();
+            String id = salt + "\t" + m.getSignature();
+            try {
+                entries.put(id, new Stored(entry.getValue(), format.write(table.get(m), table.isWidened(m))));
+            } catch (SummaryFormat.FormatException e) {
+                logger.warn("Cannot store the entry of " + m + ": " + e.getMessage());
+                entries.remove(id);
+            }
+        }
+        if (file == null) {
+            return;
+        }
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Stored> entry : entries.entrySet()) {
+                    out.write(entry.getKey() + "\t" + entry.getValue().key + "\t" + entry.getValue().entry);
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot write the summary store " + file, e);
+        }
+    }
+
+    static String hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package regiontypeinference.interproc;
 
+import regiontypeinference.region.AllocationSiteRegion;
+import regiontypeinference.region.Region;
 import regiontypeinference.transformation.Term;
 import regiontypeinference.transformation.Transformation;
 import soot.Local;
 
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 public class TransAndTerm {
     private final Transformation trans;
@@ -17,9 +20,33 @@ public class TransAndTerm {
     }
 
     public TransAndTerm join(TransAndTerm other) {
+        if (other.leq(this)) {
+            return this;
+        }
         return new TransAndTerm(trans.join(other.trans), term.join(other.term));
     }
 
+    /**
+     * Whether the transformation and the term are both below those of {@code other}.
+     */
+    public boolean leq(TransAndTerm other) {
+        return trans.leq(other.trans) && term.leq(other.term);
+    }
+
+    /**
+     * Returns this entry as seen by a caller at {@code call}: the calling contexts of the allocation sites
+     * are extended by the call, see {@link CallingContext#enclose}.
+     */
+    public TransAndTerm inCallFrom(Location call) {
+        UnaryOperator<Region> f = r -> r instanceof AllocationSiteRegion ?
+                ((AllocationSiteRegion) r).inContext(((AllocationSiteRegion) r).getCallingContext().enclose(call)) : r;
+        return new TransAndTerm(trans.mapRegions(f), term.mapRegions(f));
+    }
+
+    public TransAndTerm widen() {
+        return new TransAndTerm(trans.widen(), term.widen());
+    }
+
     public TransAndTerm clean(Set<Local> toKeep) {
         Transformation cleaned = trans.removeLocals(toKeep);
         return new TransAndTerm(cleaned, term);
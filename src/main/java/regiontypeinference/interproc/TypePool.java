@@ -33,14 +33,21 @@ import java.util.function.Consumer;
 @Immutable
 public final class TypePool {
 
-  private final int maxContextDepth;
+  private final MockInfo mockInfo;
   private final Set<RefType> pool;
+  // For each declaring class of an invoked method, the classes in the pool that can be stored in it
+  private final Map<SootClass, List<SootClass>> subclassesInPool = new HashMap<>();
+  // For each declaring class of an invoked method, the invoked methods
+  private final Map<SootClass, Set<SootMethodRef>> callsByClass = new HashMap<>();
+  // Reachable methods, those still to be visited and those visited already
+  private final Deque<SootMethodRef> todo = new ArrayDeque<>();
+  private final Set<SootMethodRef> done = new HashSet<>();
 
   /**
    * Initialises types pool for the given method as entry method.
    */
-  TypePool(CFGCache cfgCache, int maxContextDepth, SootMethodRef entryMethod) {
-    this.maxContextDepth = maxContextDepth;
+  TypePool(CFGCache cfgCache, SootMethodRef entryMethod) {
+    this.mockInfo = cfgCache.getMockInfo();
     this.pool = new HashSet<>();
     this.initialize(cfgCache, entryMethod);
 //    System.out.println(cfgCache);
@@ -50,63 +57,16 @@ public final class TypePool {
     return pool.contains(atomic);
   }
 
-  private void initialize(CFGCache cfgCache, SootMethodRef topMethodRef) {
-    int oldSize;
-    do {
-      oldSize = this.pool.size();
-      fillPool(cfgCache, topMethodRef);
-      includeMocks();
-      upwardClosure();
-    } while (oldSize != this.pool.size());
-
-  }
-
-  /**
-   * Include all mock classes
-   */
-  private void includeMocks() {
-    // TODO: check for interfaces etc.
-    MockInfo typeMap = new MockInfo();
-    for (RefType type : new HashSet<>(pool)) {
-      SootClass c = type.getSootClass();
-      String mockClass = typeMap.getMockClassName(c.getName());
-      if (mockClass != null) {
-        pool.add(Scene.v().getRefType(mockClass));
-      }
-    }
-  }
-
   /**
-   * Closes pool under super classes to establish invariant.
+   * Computes the pool by a single worklist of reachable methods. Each type is handled once when it is added
+   * to the pool: its super types and mock class are added, and the calls reached so far are dispatched to it.
+   * <p>
+   * The types that a method body adds and the methods that it invokes do not depend on the calling context,
+   * so the reachable methods are computed without calling contexts, and each body is visited once.
    */
-  private void upwardClosure() {
-    boolean change = true;
-    while (change) {
-      change = false;
-
-      for (RefType type : new HashSet<>(pool)) {
-        // Add all super classes
-        SootClass c = type.getSootClass();
-        if (!c.equals(Scene.v().getSootClass("java.lang.Object"))) {
-          if (!c.isInterface()) {
-            change |= pool.add(c.getSuperclass().getType());
-          }
-          for (SootClass implementedInterfaces : c.getInterfaces()) {
-            change |= pool.add(implementedInterfaces.getType());
-          }
-        }
-
-      }
-    }
-  }
-
-  /**
-   * Computes the flow through the whole unit.
-   */
-  private void fillPool(CFGCache cfgCache, SootMethodRef entryPoint) {
-
+  private void initialize(CFGCache cfgCache, SootMethodRef entryPoint) {
     // TODO: is it right to add the declaring class into the type pool?
-    pool.add(entryPoint.getDeclaringClass().getType());
+    add(entryPoint.getDeclaringClass().getType());
 
     // put all classes that implement the arguments
     for (Type typ : entryPoint.getParameterTypes()) {
@@ -114,37 +74,130 @@ public final class TypePool {
         RefType rt = (RefType) typ;
         SootClass c = rt.getSootClass();
         for (SootClass leafSubClass : getLeafClasses(c)) {
-          pool.add(leafSubClass.getType());
+          add(leafSubClass.getType());
         }
       }
     }
 
-    // put all classes that can be instantiated in the method body
-    Set<ActivationFrame> done = new HashSet<>();
-    Deque<ActivationFrame> todo = new LinkedList<>();
-
-    todo.add(new ActivationFrame(new CallingContext(maxContextDepth), entryPoint));
+    // put all classes that can be instantiated in the reachable method bodies
+    todo.add(entryPoint);
     while (!todo.isEmpty()) {
-      ActivationFrame next = todo.removeFirst();
-      SootMethodRef methodRef = next.methodRef;
-      CallingContext ctx = next.callingContext;
-
-      if (done.contains(next)) {
+      SootMethodRef next = todo.removeFirst();
+      if (!done.add(next)) {
         continue;
       }
-      done.add(next);
-
-      Body body = cfgCache.getOrCreate(methodRef);
+      Body body = cfgCache.getOrCreate(next);
       if (body != null) { // (method has a body)
         SootMethod m = body.getMethod();
-        ExceptionalUnitGraph unitGraph = new ExceptionalUnitGraph(body);
+        ExceptionalUnitGraph unitGraph = cfgCache.getExceptionalUnitGraph(body);
         for (Unit u : unitGraph) {
           assert (u instanceof Stmt);
-          u.apply(new StmtVisitor(m, ctx, todo::addFirst));
+          u.apply(new StmtVisitor(this::addCall));
+        }
+      }
+    }
+
+    // only the pool is needed afterwards
+    subclassesInPool.clear();
+    callsByClass.clear();
+    done.clear();
+  }
+
+  private void addMethod(SootMethodRef m) {
+    if (!done.contains(m)) {
+      todo.addFirst(m);
+    }
+  }
+
+  /**
+   * Adds a type to the pool. If it is new, then its super classes, its implemented interfaces and its
+   * mock class are added as well, and the calls of methods of the classes in which it can be stored
+   * are dispatched to it.
+   */
+  private void add(RefType type) {
+    if (!pool.add(type)) {
+      return;
+    }
+    SootClass c = type.getSootClass();
+    FastHierarchy h = Scene.v().getOrMakeFastHierarchy();
+    for (SootClass d : supertypesOf(c)) {
+      List<SootClass> subclasses = subclassesInPool.get(d);
+      if (subclasses != null && h.canStoreClass(c, d)) {
+        subclasses.add(c);
+        for (SootMethodRef call : callsByClass.get(d)) {
+          addMethod(dispatch(call, c));
+        }
+      }
+    }
+    // close the pool under super classes to establish the invariant
+    if (!c.equals(Scene.v().getSootClass("java.lang.Object"))) {
+      if (!c.isInterface()) {
+        add(c.getSuperclass().getType());
+      }
+      for (SootClass implementedInterfaces : c.getInterfaces()) {
+        add(implementedInterfaces.getType());
+      }
+    }
+    // include the mock class
+    // TODO: check for interfaces etc.
+    String mockClass = mockInfo.getMockClassName(c.getName());
+    if (mockClass != null) {
+      add(Scene.v().getRefType(mockClass));
+    }
+  }
+
+  /**
+   * Adds the methods invoked by a call of {@code call} on all classes in the pool that can be stored
+   * in its declaring class, and later on such classes when they are added to the pool.
+   */
+  private void addCall(SootMethodRef call) {
+    SootClass d = call.getDeclaringClass();
+    List<SootClass> subclasses = subclassesInPool.get(d);
+    if (subclasses == null) {
+      FastHierarchy h = Scene.v().getOrMakeFastHierarchy();
+      subclasses = new ArrayList<>();
+      for (RefType t : pool) {
+        if (h.canStoreClass(t.getSootClass(), d)) {
+          subclasses.add(t.getSootClass());
         }
       }
+      subclassesInPool.put(d, subclasses);
+      callsByClass.put(d, new HashSet<>());
     }
+    if (callsByClass.get(d).add(call)) {
+      for (SootClass c : subclasses) {
+        addMethod(dispatch(call, c));
+      }
+    }
+    addMethod(call);
+  }
 
+  /**
+   * Returns the method invoked by a call of {@code m} on a receiver of class {@code c}.
+   */
+  private static SootMethodRef dispatch(SootMethodRef m, SootClass c) {
+    return Scene.v().makeMethodRef(c, m.getName(), m.getParameterTypes(), m.getReturnType(), m.isStatic());
+  }
+
+  /**
+   * Returns the class itself, its super classes, the interfaces that it implements and java.lang.Object,
+   * which include all classes in which it can be stored.
+   */
+  private static Set<SootClass> supertypesOf(SootClass c) {
+    Set<SootClass> result = new HashSet<>();
+    Deque<SootClass> todo = new ArrayDeque<>();
+    todo.add(c);
+    while (!todo.isEmpty()) {
+      SootClass d = todo.poll();
+      if (result.add(d)) {
+        if (!d.isInterface() && d.hasSuperclass()) {
+          todo.add(d.getSuperclass());
+        }
+        todo.addAll(d.getInterfaces());
+      }
+    }
+    result.add(Scene.v().getSootClass("java.lang.Object"));
+    return result;
   }
 
   private Set<SootClass> getLeafClasses(SootClass c) {
@@ -172,26 +225,22 @@ public final class TypePool {
    * Visitor to compute the flow through all possible Jimple statements
    */
   private class StmtVisitor extends AbstractStmtSwitch {
-    final Consumer<ActivationFrame> addCall;
-    private final SootMethod method;
-    private final CallingContext ctx;
+    final Consumer<SootMethodRef> addCall;
 
-    StmtVisitor(SootMethod method, CallingContext ctx, Consumer<ActivationFrame> addCall) {
-      this.method = method;
-      this.ctx = ctx;
+    StmtVisitor(Consumer<SootMethodRef> addCall) {
       this.addCall = addCall;
     }
 
     @Override
     public void caseInvokeStmt(InvokeStmt stmt) {
       InvokeExpr e = stmt.getInvokeExpr();
-      e.apply(new ValueVisitor(method, ctx, stmt, addCall));
+      e.apply(new ValueVisitor(addCall));
     }
 
     @Override
     public void caseAssignStmt(AssignStmt stmt) {
       Value rv = stmt.getRightOp();
-      rv.apply(new ValueVisitor(method, ctx, stmt, addCall));
+      rv.apply(new ValueVisitor(addCall));
     }
 
     @Override
@@ -205,16 +254,9 @@ public final class TypePool {
    */
   class ValueVisitor extends AbstractJimpleValueSwitch {
 
-    final Consumer<ActivationFrame> addCall;
-    private final SootMethod method;
-    private final CallingContext ctx;
-    private final Stmt stm;
-
+    final Consumer<SootMethodRef> addCall;
 
-    ValueVisitor(SootMethod method, CallingContext ctx, Stmt stm, Consumer<ActivationFrame> call) {
-      this.method = method;
-      this.ctx = ctx;
-      this.stm = stm;
+    ValueVisitor(Consumer<SootMethodRef> call) {
       this.addCall = call;
     }
 
@@ -222,17 +264,7 @@ public final class TypePool {
      * Common case for all invoke expressions.
      */
     private void caseInvoke(SootMethodRef m) {
-      FastHierarchy h = Scene.v().getOrMakeFastHierarchy();
-      CallingContext newCtx = ctx.push(method, stm);
-      for (RefType t : pool) {
-        SootClass c = t.getSootClass();
-        if (h.canStoreClass(c, m.getDeclaringClass())) {
-          SootMethodRef mr = Scene.v().makeMethodRef(c, m.getName(), m.getParameterTypes(),
-                  m.getReturnType(), m.isStatic());
-          this.addCall.accept(new ActivationFrame(newCtx, mr));
-        }
-      }
-      this.addCall.accept(new ActivationFrame(newCtx, m));
+      this.addCall.accept(m);
     }
 
     @Override
@@ -246,7 +278,7 @@ public final class TypePool {
 
     @Override
     public void caseStaticInvokeExpr(StaticInvokeExpr v) {
-      pool.add(v.getMethodRef().getDeclaringClass().getType());
+      add(v.getMethodRef().getDeclaringClass().getType());
       caseInvoke(v.getMethodRef());
     }
 
@@ -263,7 +295,7 @@ public final class TypePool {
 
     @Override
     public void caseNewExpr(NewExpr v) {
-      pool.add(v.getBaseType());
+      add(v.getBaseType());
     }
 
     @Override
@@ -272,28 +304,4 @@ public final class TypePool {
     }
   }
 
-  private static class ActivationFrame {
-    private final SootMethodRef methodRef;
-    private final CallingContext callingContext;
-
-    public ActivationFrame(CallingContext callingContext, SootMethodRef methodRef) {
-      this.methodRef = methodRef;
-      this.callingContext = callingContext;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) return true;
-      if (o == null || getClass() != o.getClass()) return false;
-      ActivationFrame that = (ActivationFrame) o;
-      return Objects.equals(methodRef, that.methodRef) &&
-              Objects.equals(callingContext, that.callingContext);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(methodRef, callingContext);
-    }
-  }
-
 }
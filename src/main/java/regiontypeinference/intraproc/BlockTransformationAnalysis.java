@@ -0,0 +1,166 @@
+package regiontypeinference.intraproc;
+
+import regiontypeinference.interproc.*;
+import regiontypeinference.transformation.*;
+import soot.*;
+import soot.jimple.*;
+import soot.toolkits.graph.Block;
+import soot.toolkits.graph.BlockGraph;
+
+import java.util.*;
+
+/**
+ * Variant of {@link TransformationAnalysis} whose fixed-point iteration runs on the basic blocks
+ * of a method instead of its single statements.
+ * <p>
+ * The transformations of the statements in a block are composed once into a summary of the block,
+ * so that the iteration only composes the summaries with the flow. The summary is composed again
+ * only when the entry of a callee in the block has changed.
+ */
+public class BlockTransformationAnalysis extends ForwardFlowAnalysis<Block, TransformationFlow> {
+
+    private static boolean DEBUGGING = Boolean.valueOf(System.getenv().getOrDefault("DEBUGGING", "false"));
+    private final AbstractMethodTable table;
+    private final SootMethodRef currentRef;
+    private final SootMethod currentMethod;
+    private final StatementTransfers statements;
+    private final TransferCache transfers;
+
+    /**
+     * Summary of a basic block.
+     */
+    private static final class BlockSummary {
+        // Composition of the transformations of all statements but the last one, null if there is only one statement
+        final Transformation prefix;
+        // Transformation and term of the last statement
+        final TransAndTerm last;
+        // Composition of the transformations of all statements
+        final Transformation trans;
+
+        BlockSummary(Transformation prefix, TransAndTerm last) {
+            this.prefix = prefix;
+            this.last = last;
+            this.trans = prefix == null ? last.getTrans() : last.getTrans().concat(prefix);
+        }
+    }
+
+    /**
+     * Construct the analysis, reusing the transfers of the statements and blocks computed by earlier analyses.
+     */
+    public BlockTransformationAnalysis(BlockGraph graph, AbstractMethodTable table, SootMethodRef currentRef,
+                                       TransferCache transfers) {
+        super(graph);
+        this.table = table;
+        this.transfers = transfers;
+        this.statements = new StatementTransfers(table, currentRef, transfers);
+        this.currentRef = currentRef;
+        this.currentMethod = table.getBody(currentRef).getMethod();
+
+        if (DEBUGGING) {
+            System.out.println("\nAnalyzing method " + currentRef + " on basic blocks");
+        }
+        doAnalysis();
+    }
+
+    @Override
+    protected List<Block> orderedNodes() {
+        return table.getOrdering(graph);
+    }
+
+    @Override
+    protected TransformationFlow newInitialFlow() {
+        return TransformationFlow.bottom();
+    }
+
+    @Override
+    protected TransformationFlow entryInitialFlow() {
+        return TransformationFlow.identity();
+    }
+
+    @Override
+    protected void copy(TransformationFlow source, TransformationFlow dest) {
+        TransformationFlow.copy(source, dest);
+    }
+
+    @Override
+    protected void merge(TransformationFlow in1, TransformationFlow in2, TransformationFlow out) {
+        TransformationFlow.merge(in1, in2, out);
+    }
+
+    @Override
+    protected boolean leq(TransformationFlow in1, TransformationFlow in2) {
+        return TransformationFlow.leq(in1, in2);
+    }
+
+    @Override
+    protected Map<Block, TransformationFlow> flowThrough(TransformationFlow in, Block b) {
+        BlockSummary summary = summaryOf(b);
+        Transformation trans = summary.trans.concat(in.getTrans());
+
+        TransformationFlow out = new TransformationFlow(trans);
+
+        if (DEBUGGING) {
+            System.out.println("Block: " + b.getHead() + " ... " + b.getTail());
+            System.out.println("  in: " + in);
+            System.out.println("  b: " + summary.trans);
+            System.out.println("  out: " + out);
+        }
+
+        Map<Block, TransformationFlow> outs = new HashMap<>();
+
+        // out flow for each normal successor of b
+        for (Block succ : graph.getSuccsOf(b)) {
+            outs.put(succ, out);
+        }
+
+        // If b ends with an exit node, then update the method table
+        if (graph.getTails().contains(b)) {
+            Transformation before = summary.prefix == null ? in.getTrans() : summary.prefix.concat(in.getTrans());
+            Term term = summary.last.getTerm().substitute(before);
+            table.ensurePresent(currentRef);
+            table.joinIfPresent(currentRef, new TransAndTerm(trans, term));
+            if (DEBUGGING) {
+                System.out.println("Exit block of " + currentMethod.getName());
+                System.out.println("  Transformation: " + trans + " & " + term);
+            }
+        }
+
+        return outs;
+    }
+
+    /**
+     * Returns the summary of the block. Since version stamps increase with every update of the table,
+     * the summary only has to be composed again if the latest version of the entries of its callees has changed.
+     */
+    private BlockSummary summaryOf(Block b) {
+        long version = 0;
+        for (Unit u : b) {
+            if (!(u instanceof Stmt))
+                throw new RuntimeException("unhandled unit: " + u);
+            Stmt s = (Stmt) u;
+            if (!s.containsInvokeExpr()) {
+                continue;
+            }
+            if (s.getInvokeExpr() instanceof DynamicInvokeExpr) {
+                return compose(b);
+            }
+            // the lookup records that this method depends on the entry of the callee
+            SootMethodRef callee = s.getInvokeExpr().getMethodRef();
+            table.lookup(currentRef, callee);
+            version = Math.max(version, table.getVersion(callee));
+        }
+        return transfers.get(b, version, () -> compose(b));
+    }
+
+    private BlockSummary compose(Block b) {
+        Transformation prefix = null;
+        TransAndTerm last = null;
+        for (Unit u : b) {
+            if (last != null) {
+                prefix = prefix == null ? last.getTrans() : last.getTrans().concat(prefix);
+            }
+            last = statements.transferOf((Stmt) u);
+        }
+        return new BlockSummary(prefix, last);
+    }
+}
@@ -18,7 +18,7 @@ public class Environment extends HashMap<Local, Regions> {
 
   @Override
   public String toString() {
-    if (entrySet().stream().allMatch(entry -> entry.getValue().toSet().isEmpty())) {
+    if (entrySet().stream().allMatch(entry -> entry.getValue().isEmpty())) {
       return "()";
     }
     StringBuilder builder = new StringBuilder();
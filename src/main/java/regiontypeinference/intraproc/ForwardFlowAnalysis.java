@@ -31,6 +31,14 @@ public abstract class ForwardFlowAnalysis<N, A> {
     return new PseudoTopologicalOrderer<N>();
   }
 
+  /**
+   * Returns the nodes of the graph in the order of the fixed-point iteration.
+   * Subclasses may override it to reuse an ordering computed earlier.
+   */
+  protected List<N> orderedNodes() {
+    return constructOrderer().newList(graph, false);
+  }
+
   /**
    * Returns the flow object corresponding to the initial values for each graph node.
    */
@@ -51,8 +59,16 @@ public abstract class ForwardFlowAnalysis<N, A> {
    */
   protected abstract void merge(A in1, A in2, A out);
 
+  /**
+   * Returns whether <code>in1</code> is subsumed by <code>in2</code>, so that merging <code>in1</code> into
+   * <code>in2</code> does not change it. The default implementation does not know, so that the merge is computed.
+   */
+  protected boolean leq(A in1, A in2) {
+    return false;
+  }
+
   protected void doAnalysis() {
-    List<N> orderedUnits = constructOrderer().newList(graph, false);
+    List<N> orderedUnits = orderedNodes();
 
     final int n = orderedUnits.size();
     BitSet work = new BitSet(n);
@@ -90,6 +106,9 @@ public abstract class ForwardFlowAnalysis<N, A> {
           N to = entry.getKey();
           A afterFlow = entry.getValue();
           A previousFlow = unitToBeforeFlow.get(to);
+          if (leq(afterFlow, previousFlow)) {
+            continue;
+          }
           A mergedFlow = newInitialFlow();
           merge(afterFlow,previousFlow,mergedFlow);
           boolean hasChanged = !previousFlow.equals(mergedFlow);
@@ -0,0 +1,49 @@
+package regiontypeinference.intraproc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the transformations and terms of single statements and of the summaries of
+ * basic blocks, shared by all analyses of the methods during one run of the interprocedural analysis.
+ * <p>
+ * The transfer of a statement without invocation only depends on the statement. The transfer
+ * of an invoke statement also depends on the entry of the callee in the method table, so it is
+ * cached together with the version of that entry and re-derived when the version has changed.
+ * The summary of a block is cached together with the latest version of the entries of the
+ * callees in the block.
+ */
+public final class TransferCache {
+
+    // statement or block -> transfer
+    private final Map<Object, Transfer> transfers = new ConcurrentHashMap<>();
+
+    private static final class Transfer {
+        final long version;
+        final Object value;
+
+        Transfer(long version, Object value) {
+            this.version = version;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Returns the cached transfer of {@code key} if it was computed for the given version,
+     * and otherwise computes and caches it.
+     * @param key     statement or block
+     * @param version version of the callee entries for invoke statements and blocks with invocations,
+     *                0 otherwise
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Object key, long version, Supplier<T> compute) {
+        Transfer t = transfers.get(key);
+        if (t != null && t.version == version) {
+            return (T) t.value;
+        }
+        T value = compute.get();
+        transfers.put(key, new Transfer(version, value));
+        return value;
+    }
+}
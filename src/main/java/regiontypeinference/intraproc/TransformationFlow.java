@@ -26,13 +26,17 @@ public final class TransformationFlow {
     }
 
     static void copy(TransformationFlow from, TransformationFlow to) {
-        to.trans = new Transformation(from.trans);
+        to.trans = from.trans;
     }
 
     static void merge(TransformationFlow in1, TransformationFlow in2, TransformationFlow out) {
         out.trans = in1.trans.join(in2.trans);
     }
 
+    static boolean leq(TransformationFlow in1, TransformationFlow in2) {
+        return in1.trans.leq(in2.trans);
+    }
+
     public Transformation getTrans() {
         return trans;
     }
@@ -23,6 +23,16 @@ public final class AllocationSiteRegion implements Region {
     return sootClass;
   }
 
+  @Nonnull
+  public CallingContext getCallingContext() {
+    return callingContext;
+  }
+
+  @Nonnull
+  public Location getLocation() {
+    return location;
+  }
+
   /**
    * Construct region for objects by allocation site.
    *
@@ -42,6 +52,19 @@ public final class AllocationSiteRegion implements Region {
     this.location = Objects.requireNonNull(location);
   }
 
+  private AllocationSiteRegion(SootClass sootClass, CallingContext callingContext, Location location) {
+    this.sootClass = sootClass;
+    this.callingContext = callingContext;
+    this.location = location;
+  }
+
+  /**
+   * Returns the region of the objects allocated at the same site in the calling context {@code ctx}.
+   */
+  public AllocationSiteRegion inContext(CallingContext ctx) {
+    return ctx == callingContext ? this : new AllocationSiteRegion(sootClass, Objects.requireNonNull(ctx), location);
+  }
+
   @Override
   public boolean impossible(SootMethodRef m) {
     // Actual class is not known.
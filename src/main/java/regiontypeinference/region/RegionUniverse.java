@@ -0,0 +1,80 @@
+package regiontypeinference.region;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbering of the regions that occur in the analyses of a Soot Scene, with dense ids starting at 0.
+ * {@link Regions} are represented as bit sets over these ids.
+ * <p>
+ * The numbering is shared by all analyses until {@link #reset()} is called, which is done whenever
+ * a new Scene is set up. Sets of regions that were created before keep their numbering.
+ */
+public final class RegionUniverse {
+  private static volatile RegionUniverse current = new RegionUniverse();
+
+  private final Map<Region, Integer> ids = new ConcurrentHashMap<>();
+  // Regions by id; written under the lock of this universe, and republished after each write
+  private volatile Region[] regions = new Region[64];
+  private int size = 0;
+
+  private RegionUniverse() {
+  }
+
+  /**
+   * Returns the numbering used for new sets of regions.
+   */
+  public static RegionUniverse current() {
+    return current;
+  }
+
+  /**
+   * Starts a new numbering, so that the regions of earlier analyses are no longer kept.
+   */
+  public static void reset() {
+    current = new RegionUniverse();
+  }
+
+  /**
+   * Returns the id of {@code r}, numbering it if it has no id yet.
+   */
+  int idOf(Region r) {
+    Integer id = ids.get(r);
+    if (id != null) {
+      return id;
+    }
+    synchronized (this) {
+      id = ids.get(r);
+      if (id == null) {
+        Region[] rs = regions;
+        if (size == rs.length) {
+          rs = Arrays.copyOf(rs, 2 * size);
+        }
+        rs[size] = r;
+        regions = rs;
+        id = size++;
+        ids.put(r, id);
+      }
+      return id;
+    }
+  }
+
+  /**
+   * Returns the id of {@code r}, or -1 if it has no id.
+   */
+  int find(Region r) {
+    return ids.getOrDefault(r, -1);
+  }
+
+  Region regionOf(int id) {
+    return regions[id];
+  }
+
+  /**
+   * Returns the number of regions that have an id.
+   */
+  public int size() {
+    return ids.size();
+  }
+}
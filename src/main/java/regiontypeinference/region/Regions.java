@@ -2,46 +2,229 @@ package regiontypeinference.region;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
-import java.util.Collections;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+/**
+ * Sets of regions, represented as bit sets over the ids of the regions in a {@link RegionUniverse}.
+ */
 @Immutable
 public final class Regions {
+  private static final long[] NO_WORDS = new long[0];
+
+  @Nonnull
+  private final RegionUniverse universe;
+  // Bit i of word i / 64 is set if the region with id i is in the set; the last word is not 0
   @Nonnull
-  private final Set<Region> regions;
+  private final long[] words;
+  private final int hash;
+
+  private Regions(RegionUniverse universe, long[] words) {
+    this.universe = universe;
+    this.words = words;
+    this.hash = Arrays.hashCode(words);
+  }
 
-  private Regions(Set<Region> regions) {
-    this.regions = regions;
+  public static Regions empty() {
+    return new Regions(RegionUniverse.current(), NO_WORDS);
   }
 
   public static Regions singleton(Region r) {
-    return new Regions(Collections.singleton(Objects.requireNonNull(r)));
+    RegionUniverse universe = RegionUniverse.current();
+    int id = universe.idOf(Objects.requireNonNull(r));
+    long[] words = new long[id / 64 + 1];
+    words[id / 64] = 1L << id;
+    return new Regions(universe, words);
   }
 
   public static Regions fromSet(Set<Region> rs) {
-    return new Regions(new HashSet<>(Objects.requireNonNull(rs)));
+    RegionUniverse universe = RegionUniverse.current();
+    long[] words = NO_WORDS;
+    for (Region r : Objects.requireNonNull(rs)) {
+      int id = universe.idOf(r);
+      if (id / 64 >= words.length) {
+        words = Arrays.copyOf(words, id / 64 + 1);
+      }
+      words[id / 64] |= 1L << id;
+    }
+    return new Regions(universe, words);
   }
 
+  /**
+   * Returns an unmodifiable view of the regions in this set.
+   */
   public Set<Region> toSet() {
-    return Collections.unmodifiableSet(regions);
+    return new AbstractSet<Region>() {
+      @Override
+      public Iterator<Region> iterator() {
+        return new Iterator<Region>() {
+          private int next = nextId(0);
+
+          @Override
+          public boolean hasNext() {
+            return next >= 0;
+          }
+
+          @Override
+          public Region next() {
+            if (next < 0) {
+              throw new NoSuchElementException();
+            }
+            Region r = universe.regionOf(next);
+            next = nextId(next + 1);
+            return r;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        int size = 0;
+        for (long word : words) {
+          size += Long.bitCount(word);
+        }
+        return size;
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return o instanceof Region && Regions.this.contains((Region) o);
+      }
+    };
+  }
+
+  /**
+   * Returns the least id in this set that is at least {@code from}, or -1 if there is none.
+   */
+  private int nextId(int from) {
+    int i = from / 64;
+    if (i >= words.length) {
+      return -1;
+    }
+    long word = words[i] & (-1L << from);
+    while (true) {
+      if (word != 0) {
+        return i * 64 + Long.numberOfTrailingZeros(word);
+      }
+      if (++i == words.length) {
+        return -1;
+      }
+      word = words[i];
+    }
+  }
+
+  public boolean contains(Region r) {
+    int id = universe.find(r);
+    return id >= 0 && id / 64 < words.length && (words[id / 64] & (1L << id)) != 0;
+  }
+
+  public boolean isEmpty() {
+    return words.length == 0;
   }
 
   @Override
   public String toString() {
-    if (regions.isEmpty()) {
+    if (isEmpty()) {
       return "⊥";
     } else {
-      return "{" + regions.stream().map(Region::toString).collect(Collectors.joining(", ")) + "}";
+      return "{" + toSet().stream().map(Region::toString).collect(Collectors.joining(", ")) + "}";
     }
   }
 
   public Regions join(Regions other) {
-    Set<Region> result = new HashSet<>(this.regions);
-    result.addAll(other.regions);
-    return new Regions(result);
+    if (universe != other.universe) {
+      // sets numbered before the universe was reset
+      Set<Region> result = new HashSet<>(toSet());
+      result.addAll(other.toSet());
+      return fromSet(result);
+    }
+    long[] longer = words.length >= other.words.length ? words : other.words;
+    long[] shorter = longer == words ? other.words : words;
+    long[] result = null;
+    for (int i = 0; i < shorter.length; i++) {
+      if ((shorter[i] & ~longer[i]) != 0) {
+        if (result == null) {
+          result = longer.clone();
+        }
+        result[i] |= shorter[i];
+      }
+    }
+    if (result == null) {
+      // one set contains the other
+      return longer == words ? this : other;
+    }
+    return new Regions(universe, result);
+  }
+
+  /**
+   * Builder joining sets of regions in place, so that a set is only created once all sets are joined.
+   * A builder must not be used after {@link #build()}.
+   */
+  public static final class Builder {
+    private final RegionUniverse universe = RegionUniverse.current();
+    // The only set joined so far, as long as its words have not been copied
+    private Regions single;
+    private long[] words;
+
+    public Builder join(Regions other) {
+      if (other.isEmpty() || other == single) {
+        return this;
+      }
+      if (other.universe != universe) {
+        // sets numbered before the universe was reset
+        for (Region r : other.toSet()) {
+          add(r);
+        }
+        return this;
+      }
+      if (words == null) {
+        if (single == null) {
+          single = other;
+          return this;
+        }
+        words = single.words.clone();
+      }
+      if (other.words.length > words.length) {
+        words = Arrays.copyOf(words, other.words.length);
+      }
+      for (int i = 0; i < other.words.length; i++) {
+        words[i] |= other.words[i];
+      }
+      return this;
+    }
+
+    public Builder add(Region r) {
+      int id = universe.idOf(Objects.requireNonNull(r));
+      if (words == null) {
+        words = single == null ? NO_WORDS : single.words.clone();
+      }
+      if (id / 64 >= words.length) {
+        words = Arrays.copyOf(words, id / 64 + 1);
+      }
+      words[id / 64] |= 1L << id;
+      return this;
+    }
+
+    public Regions build() {
+      Regions result;
+      if (words != null) {
+        // the words are only or-ed, so the last word of a non-empty result is not 0
+        result = new Regions(universe, words);
+      } else if (single != null) {
+        result = single;
+      } else {
+        result = new Regions(universe, NO_WORDS);
+      }
+      single = null;
+      words = null;
+      return result;
+    }
   }
 
   @Override
@@ -49,11 +232,12 @@ public final class Regions {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     Regions that = (Regions) o;
-    return regions.equals(that.regions);
+    // regions numbered in different universes belong to different Scenes
+    return universe == that.universe && hash == that.hash && Arrays.equals(words, that.words);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(regions);
+    return hash;
   }
 }
@@ -1,32 +1,45 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import soot.SootField;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
 
 /**
- * Nonempty field graphs
+ * Nonempty field graphs.
+ * Field graphs are immutable and interned, so that equal field graphs are the same instance.
  */
 public class FieldGraph {
-    private SootField head, tail;
-    private Set<Edge> edges;
+    private static final Interner<FieldGraph> INTERNER = Interners.newWeakInterner();
+
+    private final SootField head, tail;
+    private final Set<Edge> edges;
+    private final int hash;
+
+    private FieldGraph(SootField head, SootField tail, Set<Edge> edges) {
+        this.head = head;
+        this.tail = tail;
+        this.edges = edges;
+        this.hash = Objects.hash(head, tail, edges);
+    }
 
     /**
      * Singleton graph, representing the field
      * @param field
      */
-    public FieldGraph(SootField field) {
-        this.head = field;
-        this.tail = field;
-        this.edges = new HashSet<>();
+    public static FieldGraph of(SootField field) {
+        return of(field, field, Collections.emptySet());
     }
 
-    public FieldGraph(SootField head, SootField tail, Set<Edge> edges) {
-        this.head = head;
-        this.tail = tail;
-        this.edges = edges;
+    /**
+     * The field graph with the given head, tail and edges. The set of edges must not be modified afterwards.
+     */
+    public static FieldGraph of(SootField head, SootField tail, Set<Edge> edges) {
+        return INTERNER.intern(new FieldGraph(head, tail, Collections.unmodifiableSet(edges)));
     }
 
     public boolean contains(SootField source, SootField target) {
@@ -41,7 +54,21 @@ public class FieldGraph {
         Set<Edge> edgeSet = new HashSet<>(edges);
         edgeSet.add(new Edge(this.tail, next.head));
         edgeSet.addAll(next.edges);
-        return new FieldGraph(this.head, next.tail, edgeSet);
+        return of(this.head, next.tail, edgeSet);
+    }
+
+    /**
+     * Union with another field graph with the same head and tail.
+     * The result contains the paths of both graphs.
+     * @param other
+     */
+    public FieldGraph union(FieldGraph other) {
+        if (!head.equals(other.head) || !tail.equals(other.tail)) {
+            throw new IllegalArgumentException("different head or tail: " + this + " and " + other);
+        }
+        Set<Edge> edgeSet = new HashSet<>(edges);
+        edgeSet.addAll(other.edges);
+        return of(head, tail, edgeSet);
     }
 
     public SootField getHead() {
@@ -65,12 +92,12 @@ public class FieldGraph {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         FieldGraph that = (FieldGraph) o;
-        return head.equals(that.head) && tail.equals(that.tail) && edges.equals(that.edges);
+        return hash == that.hash && head.equals(that.head) && tail.equals(that.tail) && edges.equals(that.edges);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(head, tail, edges);
+        return hash;
     }
 
     @Override
@@ -81,14 +108,22 @@ public class FieldGraph {
         return "(" + head.getName() + "," + edges + "," + tail.getName() + ")";
     }
 
-    static class Edge {
+    public static class Edge {
         final SootField source, target;
 
-        Edge(SootField source, SootField target) {
+        public Edge(SootField source, SootField target) {
             this.source = source;
             this.target = target;
         }
 
+        public SootField getSource() {
+            return source;
+        }
+
+        public SootField getTarget() {
+            return target;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -0,0 +1,270 @@
+package regiontypeinference.transformation;
+
+import regiontypeinference.interproc.FieldTable;
+import regiontypeinference.intraproc.Environment;
+import regiontypeinference.region.AllocationSiteRegion;
+import regiontypeinference.region.Region;
+import regiontypeinference.region.Regions;
+import regiontypeinference.region.SpecialRegion;
+import soot.Local;
+import soot.SootClass;
+import soot.SootField;
+
+import java.util.*;
+
+/**
+ * Computation of the field table that a transformation produces from an environment and a field table.
+ * <p>
+ * The field table is computed in rounds. In each round, the regions of the terms of the field assignments
+ * are added to the fields that are reachable from the assigned field atoms, where the terms and the reachable
+ * fields are evaluated on the table of the previous round. The fields without regions are given the null region.
+ * <p>
+ * The evaluation is semi-naive: the reachable fields of each field atom and their regions are kept across rounds,
+ * and a round only evaluates those again whose fields have changed in the previous round, or whose reachable
+ * fields may have grown because a field newly contains the region of one of them. Likewise, only the fields to
+ * which new regions have been assigned are updated.
+ */
+final class Instantiation {
+    private final Map<Key, Term> assigns;
+    private final Environment env;
+    private final FieldTable ft;
+
+    // The field assignments, where the variable field atoms are instantiated with the environment
+    private final List<RegionFieldAtom> assignedAtoms = new ArrayList<>();
+    private final List<Term> assignedTerms = new ArrayList<>();
+    // The regions of the terms of the field assignments in the round when they were last propagated
+    private final List<Regions> propagated = new ArrayList<>();
+
+    private final Map<RegionFieldAtom, Reach> reaches = new HashMap<>();
+    // The regions assigned to each field so far
+    private final Map<FieldTable.Key, Regions> assigned = new HashMap<>();
+    // The regions of the transformation, the environment and the table, and the fields of these regions
+    private final Set<Region> regions;
+    private final Set<FieldTable.Key> fields;
+    // The fields whose regions have to be updated
+    private final Set<FieldTable.Key> dirty;
+
+    // The changes of the table in the last round
+    private Set<FieldTable.Key> changedFields = Collections.emptySet();
+    private Set<Region> newMembers = Collections.emptySet();
+    private int round = 0;
+
+    /**
+     * The fields reachable from a field atom, and their regions.
+     */
+    private static final class Reach {
+        Set<FieldTable.Key> keys;
+        Regions regions;
+        int changedInRound;
+    }
+
+    Instantiation(Map<Key, Term> assigns, Environment env, FieldTable ft) {
+        this.assigns = assigns;
+        this.env = env;
+        this.ft = new FieldTable(ft);
+        for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
+            if (entry.getKey() instanceof RegionFieldAtom) {
+                addAssignment((RegionFieldAtom) entry.getKey(), entry.getValue());
+            } else if (entry.getKey() instanceof VariableFieldAtom) {
+                VariableFieldAtom vfa = (VariableFieldAtom) entry.getKey();
+                Local var = vfa.getVar();
+                if (env.containsKey(var)) {
+                    for (Region r : env.get(var).toSet()) {
+                        addAssignment(RegionFieldAtom.of(r, vfa.getGraph()), entry.getValue());
+                    }
+                }
+            }
+        }
+        regions = getRegions();
+        fields = getFields(regions);
+        fields.addAll(ft.keySet());
+        dirty = new HashSet<>(fields);
+    }
+
+    private void addAssignment(RegionFieldAtom rfa, Term term) {
+        assignedAtoms.add(rfa);
+        assignedTerms.add(term);
+        propagated.add(null);
+    }
+
+    /**
+     * Computes the rounds until the table is stable.
+     * @return the stable field table
+     */
+    FieldTable compute() {
+        do {
+            round++;
+            refreshReaches();
+            for (int i = 0; i < assignedAtoms.size(); i++) {
+                Reach reach = reach(assignedAtoms.get(i));
+                Regions value = instantiate(assignedTerms.get(i));
+                if (reach.changedInRound == round || !value.equals(propagated.get(i))) {
+                    propagated.set(i, value);
+                    for (FieldTable.Key key : reach.keys) {
+                        Regions old = assigned.get(key);
+                        Regions joined = old == null ? value : old.join(value);
+                        if (!joined.equals(old)) {
+                            assigned.put(key, joined);
+                            dirty.add(key);
+                        }
+                    }
+                }
+            }
+        } while (update());
+        return ft;
+    }
+
+    /**
+     * Evaluates the field atoms again whose reachable fields or their regions may have changed in the last round.
+     */
+    private void refreshReaches() {
+        for (Map.Entry<RegionFieldAtom, Reach> entry : reaches.entrySet()) {
+            Reach reach = entry.getValue();
+            boolean stale = false;
+            for (FieldTable.Key key : reach.keys) {
+                if (changedFields.contains(key) || newMembers.contains(key.getRegion())) {
+                    stale = true;
+                    break;
+                }
+            }
+            if (stale) {
+                Set<FieldTable.Key> keys = entry.getKey().reachableFields(ft);
+                Regions rs = regionsOf(keys);
+                if (!keys.equals(reach.keys) || !rs.equals(reach.regions)) {
+                    reach.keys = keys;
+                    reach.regions = rs;
+                    reach.changedInRound = round;
+                }
+            }
+        }
+    }
+
+    private Reach reach(RegionFieldAtom rfa) {
+        Reach reach = reaches.get(rfa);
+        if (reach == null) {
+            reach = new Reach();
+            reach.keys = rfa.reachableFields(ft);
+            reach.regions = regionsOf(reach.keys);
+            reach.changedInRound = round;
+            reaches.put(rfa, reach);
+        }
+        return reach;
+    }
+
+    private Regions regionsOf(Set<FieldTable.Key> keys) {
+        Regions.Builder rs = new Regions.Builder();
+        for (FieldTable.Key key : keys) {
+            Regions value = ft.get(key);
+            if (value != null) {
+                rs.join(value);
+            }
+        }
+        return rs.build();
+    }
+
+    /**
+     * Instantiates the term as {@link Term#instantiate}, using the reachable fields kept for the field atoms.
+     */
+    private Regions instantiate(Term term) {
+        Regions.Builder result = new Regions.Builder();
+        for (Atom atom : term.getAtoms()) {
+            if (atom instanceof RegionFieldAtom) {
+                result.join(reach((RegionFieldAtom) atom).regions);
+            } else if (atom instanceof VariableFieldAtom) {
+                VariableFieldAtom vfa = (VariableFieldAtom) atom;
+                for (Region r : env.getOrDefault(vfa.getVar(), Regions.empty()).toSet()) {
+                    result.join(reach(RegionFieldAtom.of(r, vfa.getGraph())).regions);
+                }
+            } else {
+                // variables and regions do not depend on the field table
+                result.join(atom.instantiate(env, ft));
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * Updates the dirty fields of the table with the regions assigned to them.
+     * @return whether the table has changed
+     */
+    private boolean update() {
+        Map<FieldTable.Key, Regions> updates = new HashMap<>();
+        Set<Region> added = new HashSet<>();
+        for (Iterator<FieldTable.Key> it = dirty.iterator(); it.hasNext(); ) {
+            FieldTable.Key key = it.next();
+            if (!fields.contains(key)) {
+                // not a field of the regions yet
+                continue;
+            }
+            it.remove();
+            Regions old = ft.get(key);
+            Regions value = assigned.getOrDefault(key, Regions.empty());
+            if (old != null) {
+                value = old.join(value);
+            }
+            if (value.isEmpty()) {
+                value = Regions.singleton(SpecialRegion.NULL_REGION);
+            }
+            if (!value.equals(old)) {
+                updates.put(key, value);
+                for (Region r : value.toSet()) {
+                    if (old == null || !old.contains(r)) {
+                        added.add(r);
+                    }
+                }
+            }
+        }
+        ft.putAll(updates);
+        changedFields = updates.keySet();
+        newMembers = added;
+        for (Region r : added) {
+            if (regions.add(r)) {
+                for (FieldTable.Key key : getFields(Collections.singleton(r))) {
+                    if (fields.add(key)) {
+                        dirty.add(key);
+                    }
+                }
+            }
+        }
+        return !updates.isEmpty();
+    }
+
+    private static Set<FieldTable.Key> getFields(Set<Region> regions) {
+        Set<FieldTable.Key> fields = new HashSet<>();
+        for (Region r : regions) {
+            if (r instanceof AllocationSiteRegion) {
+                SootClass c = ((AllocationSiteRegion) r).getSootClass();
+                for (SootField f : c.getFields()) {
+                    fields.add(new FieldTable.Key(r, f));
+                }
+            }
+        }
+        return fields;
+    }
+
+    private Set<Region> getRegions() {
+        Set<Region> regions = new HashSet<>();
+        for (Key k : assigns.keySet()) {
+            if(k instanceof RegionFieldAtom) {
+                regions.add(((RegionFieldAtom) k).getRegion());
+            }
+        }
+        for (Term t : assigns.values()) {
+            for (Atom a : t.getAtoms()) {
+                if (a instanceof RegionAtom) {
+                    regions.add(((RegionAtom) a).getRegion());
+                } else if (a instanceof RegionFieldAtom) {
+                    regions.add(((RegionFieldAtom) a).getRegion());
+                }
+            }
+        }
+        for (Regions rs : env.values()) {
+            regions.addAll(rs.toSet());
+        }
+        for (Map.Entry<FieldTable.Key, Regions> entry : ft.entrySet()) {
+            regions.add(entry.getKey().getRegion());
+            regions.addAll(entry.getValue().toSet());
+        }
+        return regions;
+    }
+}
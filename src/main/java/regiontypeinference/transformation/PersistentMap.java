@@ -0,0 +1,442 @@
+package regiontypeinference.transformation;
+
+import java.util.*;
+
+/**
+ * Immutable hash map that shares its structure with the maps it is derived from.
+ * <p>
+ * The map is a hash array mapped trie: each node consumes five bits of the hash of the keys, and keys
+ * whose hashes agree on all bits are kept in a collision node. {@link #plus} and {@link #minus} copy only
+ * the nodes on the path to the changed key. Nodes that are left with a single entry are collapsed into
+ * their parents, so that the shape of the trie only depends on the keys. This allows {@link #equals} to
+ * skip shared nodes. The hash code of the map is maintained with each change.
+ * <p>
+ * Null keys and values are not permitted.
+ */
+final class PersistentMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // Maximum number of nodes on a path from the root: seven bitmap nodes and one collision node
+    private static final int MAX_DEPTH = 8;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0, 0);
+
+    private final Node root;
+    private final int size;
+    private final int hash;
+
+    private PersistentMap(Node root, int size, int hash) {
+        this.root = root;
+        this.size = size;
+        this.hash = hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a persistent map with the entries of {@code map}.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentMap) {
+            return (PersistentMap<K, V>) map;
+        }
+        PersistentMap<K, V> result = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            result = result.plus(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Returns this map with {@code key} mapped to {@code value}.
+     */
+    PersistentMap<K, V> plus(K key, V value) {
+        Leaf leaf = new Leaf(key, Objects.requireNonNull(value));
+        Change change = new Change();
+        Node newRoot = root.plus(leaf, 0, change);
+        if (newRoot == root) {
+            return this;
+        }
+        if (change.old == null) {
+            return new PersistentMap<>(newRoot, size + 1, hash + leaf.hashCode());
+        }
+        return new PersistentMap<>(newRoot, size, hash - change.old.hashCode() + leaf.hashCode());
+    }
+
+    /**
+     * Returns this map without {@code key}.
+     */
+    PersistentMap<K, V> minus(Object key) {
+        Change change = new Change();
+        Node newRoot = root.minus(key, spread(key), 0, change);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot, size - 1, hash - change.old.hashCode());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return root.find(key, spread(key), 0) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Leaf leaf = root.find(key, spread(key), 0);
+        return leaf == null ? null : (V) leaf.getValue();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o instanceof PersistentMap) {
+            PersistentMap<?, ?> that = (PersistentMap<?, ?>) o;
+            return size == that.size && hash == that.hash && root.sameAs(that.root);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private static int spread(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Records the entry replaced or removed by a change of the trie.
+     */
+    private static final class Change {
+        Leaf old;
+    }
+
+    private static final class Leaf extends AbstractMap.SimpleImmutableEntry<Object, Object> {
+        private static final long serialVersionUID = 1L;
+
+        final int keyHash;
+
+        Leaf(Object key, Object value) {
+            super(key, value);
+            this.keyHash = spread(key);
+        }
+    }
+
+    private static abstract class Node {
+        abstract Leaf find(Object key, int keyHash, int shift);
+
+        abstract Node plus(Leaf leaf, int shift, Change change);
+
+        /**
+         * Returns the node without {@code key}, which may be left with a single leaf.
+         */
+        abstract Node minus(Object key, int keyHash, int shift, Change change);
+
+        /**
+         * Returns the only entry of the node, or null if it has several entries.
+         */
+        abstract Leaf singleLeaf();
+
+        /**
+         * Returns the leaves and child nodes of this node.
+         */
+        abstract Object[] slots();
+
+        abstract boolean sameAs(Node other);
+
+        static Node pair(Leaf a, Leaf b, int shift) {
+            if (shift >= Integer.SIZE) {
+                return new CollisionNode(new Leaf[]{a, b});
+            }
+            int ia = (a.keyHash >>> shift) & MASK;
+            int ib = (b.keyHash >>> shift) & MASK;
+            if (ia == ib) {
+                return new BitmapNode(1 << ia, new Object[]{pair(a, b, shift + BITS)});
+            }
+            return new BitmapNode((1 << ia) | (1 << ib), ia < ib ? new Object[]{a, b} : new Object[]{b, a});
+        }
+    }
+
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        // The leaves and child nodes, ordered by their positions in the bitmap
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        Leaf find(Object key, int keyHash, int shift) {
+            int bit = 1 << ((keyHash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object o = array[Integer.bitCount(bitmap & (bit - 1))];
+            if (o instanceof Leaf) {
+                Leaf leaf = (Leaf) o;
+                return leaf.getKey().equals(key) ? leaf : null;
+            }
+            return ((Node) o).find(key, keyHash, shift + BITS);
+        }
+
+        @Override
+        Node plus(Leaf leaf, int shift, Change change) {
+            int bit = 1 << ((leaf.keyHash >>> shift) & MASK);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 1];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = leaf;
+                System.arraycopy(array, index, newArray, index + 1, array.length - index);
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object o = array[index];
+            Object replacement;
+            if (o instanceof Leaf) {
+                Leaf old = (Leaf) o;
+                if (old.getKey().equals(leaf.getKey())) {
+                    if (old.getValue().equals(leaf.getValue())) {
+                        return this;
+                    }
+                    change.old = old;
+                    replacement = leaf;
+                } else {
+                    replacement = pair(old, leaf, shift + BITS);
+                }
+            } else {
+                Node child = (Node) o;
+                replacement = child.plus(leaf, shift + BITS, change);
+                if (replacement == child) {
+                    return this;
+                }
+            }
+            return with(index, replacement);
+        }
+
+        @Override
+        Node minus(Object key, int keyHash, int shift, Change change) {
+            int bit = 1 << ((keyHash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Object o = array[index];
+            if (o instanceof Leaf) {
+                Leaf leaf = (Leaf) o;
+                if (!leaf.getKey().equals(key)) {
+                    return this;
+                }
+                change.old = leaf;
+                Object[] newArray = new Object[array.length - 1];
+                System.arraycopy(array, 0, newArray, 0, index);
+                System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+                return new BitmapNode(bitmap & ~bit, newArray);
+            }
+            Node child = (Node) o;
+            Node newChild = child.minus(key, keyHash, shift + BITS, change);
+            if (newChild == child) {
+                return this;
+            }
+            Leaf single = newChild.singleLeaf();
+            return with(index, single != null ? single : newChild);
+        }
+
+        private BitmapNode with(int index, Object slot) {
+            Object[] newArray = array.clone();
+            newArray[index] = slot;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        Leaf singleLeaf() {
+            return array.length == 1 && array[0] instanceof Leaf ? (Leaf) array[0] : null;
+        }
+
+        @Override
+        Object[] slots() {
+            return array;
+        }
+
+        @Override
+        boolean sameAs(Node other) {
+            if (this == other) return true;
+            if (!(other instanceof BitmapNode) || bitmap != ((BitmapNode) other).bitmap) return false;
+            Object[] otherArray = ((BitmapNode) other).array;
+            for (int i = 0; i < array.length; i++) {
+                Object a = array[i], b = otherArray[i];
+                if (a == b) continue;
+                if (a instanceof Leaf && b instanceof Leaf) {
+                    if (!a.equals(b)) return false;
+                } else if (a instanceof Node && b instanceof Node) {
+                    if (!((Node) a).sameAs((Node) b)) return false;
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Node of the keys whose hashes are equal.
+     */
+    private static final class CollisionNode extends Node {
+        final Leaf[] leaves;
+
+        CollisionNode(Leaf[] leaves) {
+            this.leaves = leaves;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].getKey().equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Leaf find(Object key, int keyHash, int shift) {
+            int i = indexOf(key);
+            return i < 0 ? null : leaves[i];
+        }
+
+        @Override
+        Node plus(Leaf leaf, int shift, Change change) {
+            int i = indexOf(leaf.getKey());
+            if (i < 0) {
+                Leaf[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+                newLeaves[leaves.length] = leaf;
+                return new CollisionNode(newLeaves);
+            }
+            if (leaves[i].getValue().equals(leaf.getValue())) {
+                return this;
+            }
+            change.old = leaves[i];
+            Leaf[] newLeaves = leaves.clone();
+            newLeaves[i] = leaf;
+            return new CollisionNode(newLeaves);
+        }
+
+        @Override
+        Node minus(Object key, int keyHash, int shift, Change change) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            change.old = leaves[i];
+            Leaf[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, i);
+            System.arraycopy(leaves, i + 1, newLeaves, i, leaves.length - i - 1);
+            return new CollisionNode(newLeaves);
+        }
+
+        @Override
+        Leaf singleLeaf() {
+            return leaves.length == 1 ? leaves[0] : null;
+        }
+
+        @Override
+        Object[] slots() {
+            return leaves;
+        }
+
+        @Override
+        boolean sameAs(Node other) {
+            if (this == other) return true;
+            if (!(other instanceof CollisionNode) || leaves.length != ((CollisionNode) other).leaves.length) {
+                return false;
+            }
+            // the order of the leaves depends on the order of insertion
+            for (Leaf leaf : leaves) {
+                Leaf otherLeaf = other.find(leaf.getKey(), leaf.keyHash, Integer.SIZE);
+                if (otherLeaf == null || !leaf.getValue().equals(otherLeaf.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Depth-first iterator over the leaves of a trie.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] stack = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = 0;
+        private Leaf next;
+
+        EntryIterator(Node root) {
+            stack[0] = root.slots();
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] < stack[depth].length) {
+                    Object o = stack[depth][positions[depth]++];
+                    if (o instanceof Leaf) {
+                        next = (Leaf) o;
+                        return;
+                    }
+                    depth++;
+                    stack[depth] = ((Node) o).slots();
+                    positions[depth] = 0;
+                } else {
+                    depth--;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf result = next;
+            advance();
+            return (Map.Entry<K, V>) (Map.Entry<?, ?>) result;
+        }
+    }
+}
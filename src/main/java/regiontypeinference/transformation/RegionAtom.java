@@ -1,5 +1,7 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import regiontypeinference.interproc.FieldTable;
 import regiontypeinference.intraproc.Environment;
 import regiontypeinference.region.Region;
@@ -7,11 +9,22 @@ import regiontypeinference.region.Regions;
 
 import java.util.Objects;
 
+/**
+ * Atom of a region. Atoms are immutable and interned, so that equal atoms are the same instance.
+ */
 public class RegionAtom implements Atom {
-    private Region region;
+    private static final Interner<RegionAtom> INTERNER = Interners.newWeakInterner();
 
-    public RegionAtom(Region region) {
+    private final Region region;
+    private final int hash;
+
+    private RegionAtom(Region region) {
         this.region = region;
+        this.hash = Objects.hash(region);
+    }
+
+    public static RegionAtom of(Region region) {
+        return INTERNER.intern(new RegionAtom(region));
     }
 
     @Override
@@ -21,12 +34,12 @@ public class RegionAtom implements Atom {
 
     @Override
     public Atom concat(FieldGraph graph) {
-        return new RegionFieldAtom(region, graph);
+        return RegionFieldAtom.of(region, graph);
     }
 
     @Override
     public Term substitute(Transformation trans) {
-        return new Term(this);
+        return Term.of(this);
     }
 
     public Region getRegion() {
@@ -38,12 +51,12 @@ public class RegionAtom implements Atom {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         RegionAtom that = (RegionAtom) o;
-        return region.equals(that.region);
+        return hash == that.hash && region.equals(that.region);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(region);
+        return hash;
     }
 
     @Override
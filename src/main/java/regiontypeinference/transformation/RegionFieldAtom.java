@@ -1,28 +1,38 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import regiontypeinference.interproc.FieldTable;
 import regiontypeinference.intraproc.Environment;
 import regiontypeinference.region.Region;
 import regiontypeinference.region.Regions;
 import soot.SootField;
 
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
 
+/**
+ * Atom of the fields of the objects in a region along a field graph.
+ * Atoms are immutable and interned, so that equal atoms are the same instance.
+ */
 public class RegionFieldAtom implements Atom, Key {
-    private Region region;
-    private FieldGraph graph;
+    private static final Interner<RegionFieldAtom> INTERNER = Interners.newWeakInterner();
 
-    public RegionFieldAtom(Region region, FieldGraph graph) {
+    private final Region region;
+    private final FieldGraph graph;
+    private final int hash;
+
+    private RegionFieldAtom(Region region, FieldGraph graph) {
         this.region = region;
         this.graph = graph;
+        this.hash = Objects.hash(region, graph);
     }
 
-    public RegionFieldAtom(Region region, SootField field) {
-        this.region = region;
-        this.graph = new FieldGraph(field);
+    public static RegionFieldAtom of(Region region, FieldGraph graph) {
+        return INTERNER.intern(new RegionFieldAtom(region, graph));
+    }
+
+    public static RegionFieldAtom of(Region region, SootField field) {
+        return of(region, FieldGraph.of(field));
     }
 
     /**
@@ -33,24 +43,24 @@ public class RegionFieldAtom implements Atom, Key {
      */
     @Override
     public Regions instantiate(Environment env, FieldTable table) {
-        Set<Region> regions = new HashSet<>();
-        Set<FieldTable.Key> reachables = reachableFields(table);
-        for (Map.Entry<FieldTable.Key, Regions> entry : table.entrySet()) {
-            if (reachables.contains(entry.getKey())) {
-                regions.addAll(entry.getValue().toSet());
+        Regions.Builder regions = new Regions.Builder();
+        for (FieldTable.Key key : reachableFields(table)) {
+            Regions rs = table.get(key);
+            if (rs != null) {
+                regions.join(rs);
             }
         }
-        return Regions.fromSet(regions);
+        return regions.build();
     }
 
     @Override
     public Atom concat(FieldGraph graph) {
-        return new RegionFieldAtom(region, this.graph.concat(graph));
+        return of(region, this.graph.concat(graph));
     }
 
     @Override
     public Term substitute(Transformation trans) {
-        return new Term(this);
+        return Term.of(this);
     }
 
     /**
@@ -63,13 +73,13 @@ public class RegionFieldAtom implements Atom, Key {
         FieldTable.Key key = new FieldTable.Key(region, graph.getHead());
         Set<FieldTable.Key> result = new HashSet<>();
         result.add(key);
-        boolean stable = false;
-        while (!stable) {
-            stable = true;
-            for (FieldTable.Key s : result) {
-                Set successors = successorFields(table, s);
-                boolean changed = result.addAll(successors);
-                stable = stable && !changed;
+        Deque<FieldTable.Key> worklist = new ArrayDeque<>();
+        worklist.add(key);
+        while (!worklist.isEmpty()) {
+            for (FieldTable.Key s : successorFields(table, worklist.poll())) {
+                if (result.add(s)) {
+                    worklist.add(s);
+                }
             }
         }
         return result;
@@ -84,10 +94,9 @@ public class RegionFieldAtom implements Atom, Key {
      */
     public Set<FieldTable.Key> successorFields(FieldTable table, FieldTable.Key key) {
         Set<FieldTable.Key> result = new HashSet<>();
-        for (Map.Entry<FieldTable.Key, Regions> entry : table.entrySet()) {
-            if (graph.contains(key.getField(), entry.getKey().getField())
-            && entry.getValue().toSet().contains(key.getRegion())) {
-                result.add(entry.getKey());
+        for (FieldTable.Key successor : table.keysContaining(key.getRegion())) {
+            if (graph.contains(key.getField(), successor.getField())) {
+                result.add(successor);
             }
         }
         return result;
@@ -106,12 +115,12 @@ public class RegionFieldAtom implements Atom, Key {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         RegionFieldAtom that = (RegionFieldAtom) o;
-        return region.equals(that.region) && graph.equals(that.graph);
+        return hash == that.hash && region.equals(that.region) && graph == that.graph;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(region, graph);
+        return hash;
     }
 
     @Override
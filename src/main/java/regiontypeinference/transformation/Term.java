@@ -1,55 +1,69 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import regiontypeinference.interproc.FieldTable;
 import regiontypeinference.intraproc.Environment;
 import regiontypeinference.region.Region;
 import regiontypeinference.region.Regions;
 import soot.Local;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
  * A term is a finite joint of atoms.
+ * Terms are immutable and interned, so that equal terms are the same instance.
  */
 public class Term {
-    Set<Atom> atoms;
+    private static final Interner<Term> INTERNER = Interners.newWeakInterner();
+    private static final Term BOTTOM = of(Collections.emptySet());
+
+    private final Set<Atom> atoms;
+    private final int hash;
+
+    private Term(Set<Atom> atoms) {
+        this.atoms = atoms;
+        this.hash = Objects.hash(atoms);
+    }
 
     /**
      * The bottom term
      */
-    public Term() {
-        atoms = new HashSet();
+    public static Term bottom() {
+        return BOTTOM;
     }
 
     /**
      * Singleton term containing atom.
      * @param atom
      */
-    public Term(Atom atom) {
-        atoms = new HashSet(Collections.singleton(Objects.requireNonNull(atom)));
+    public static Term of(Atom atom) {
+        return of(Collections.singleton(Objects.requireNonNull(atom)));
     }
 
-    public Term(Local var) {
-        atoms = new HashSet(Collections.singleton(new VariableAtom(var)));
+    public static Term of(Local var) {
+        return of(VariableAtom.of(var));
     }
 
-    public Term(Region region) {
-        atoms = new HashSet(Collections.singleton(new RegionAtom(region)));
+    public static Term of(Region region) {
+        return of(RegionAtom.of(region));
     }
 
-    public Term(Regions regions) {
-        atoms = new HashSet();
+    public static Term of(Regions regions) {
+        Set<Atom> atoms = new HashSet<>();
         for(Region r : regions.toSet()) {
-            atoms.add(new RegionAtom(r));
+            atoms.add(RegionAtom.of(r));
         }
+        return of(atoms);
     }
 
-    public Term(Set<Atom> atoms) {
-        this.atoms = atoms;
+    /**
+     * The term containing the given atoms. The set must not be modified afterwards.
+     */
+    public static Term of(Set<Atom> atoms) {
+        return INTERNER.intern(new Term(Collections.unmodifiableSet(atoms)));
     }
 
     /**
@@ -58,17 +72,30 @@ public class Term {
      * @param term
      */
     public Term join(Term term) {
-        Set<Atom> result = new HashSet(atoms);
+        if (term.atoms.isEmpty() || term == this) {
+            return this;
+        }
+        if (atoms.isEmpty()) {
+            return term;
+        }
+        Set<Atom> result = new HashSet<>(atoms);
         result.addAll(term.getAtoms());
-        return new Term(result);
+        return of(result);
+    }
+
+    /**
+     * Whether this term is below {@code term} in the lattice of terms, i.e. {@code this.join(term)} is {@code term}.
+     */
+    public boolean leq(Term term) {
+        return term == this || term.atoms.containsAll(atoms);
     }
 
     public Regions instantiate(Environment env, FieldTable table) {
-        Set<Region> regions = new HashSet();
+        Regions.Builder regions = new Regions.Builder();
         for (Atom atom : atoms) {
-            regions.addAll(atom.instantiate(env,table).toSet());
+            regions.join(atom.instantiate(env,table));
         }
-        return Regions.fromSet(regions);
+        return regions.build();
     }
 
     public Term concat(FieldGraph graph) {
@@ -76,15 +103,130 @@ public class Term {
         for (Atom a : atoms) {
             result.add(a.concat(graph));
         }
-        return new Term(result);
+        return of(result);
+    }
+
+    /**
+     * Replaces each region in the atoms of this term by its image under {@code f}.
+     */
+    public Term mapRegions(UnaryOperator<Region> f) {
+        Builder result = new Builder();
+        for (Atom a : atoms) {
+            result.add(mapRegions(a, f));
+        }
+        return result.build();
+    }
+
+    static Atom mapRegions(Atom a, UnaryOperator<Region> f) {
+        if (a instanceof RegionAtom) {
+            return RegionAtom.of(f.apply(((RegionAtom) a).getRegion()));
+        } else if (a instanceof RegionFieldAtom) {
+            RegionFieldAtom rfa = (RegionFieldAtom) a;
+            return RegionFieldAtom.of(f.apply(rfa.getRegion()), rfa.getGraph());
+        }
+        return a;
     }
 
     public Term substitute(Transformation trans) {
-        Term result = new Term();
+        Builder result = new Builder();
         for (Atom a : atoms) {
-            result = result.join(a.substitute(trans));
+            result.join(a.substitute(trans));
+        }
+        return result.build();
+    }
+
+    /**
+     * Widening: the field atoms with the same base, head and tail are merged into one atom
+     * whose field graph is the union of their field graphs. The result over-approximates
+     * this term and has at most one field atom for each base, head and tail, so that
+     * repeated widening stabilises.
+     */
+    public Term widen() {
+        Map<List<Object>, Atom> merged = new HashMap<>();
+        Set<Atom> result = new HashSet<>();
+        for (Atom a : atoms) {
+            List<Object> shape = shapeOf(a);
+            if (shape == null) {
+                result.add(a);
+            } else {
+                merged.merge(shape, a, Term::mergeFieldAtoms);
+            }
+        }
+        result.addAll(merged.values());
+        return of(result);
+    }
+
+    /**
+     * Returns the base, head and tail of a field atom, or null for other atoms.
+     */
+    static List<Object> shapeOf(Atom a) {
+        if (a instanceof VariableFieldAtom) {
+            FieldGraph g = ((VariableFieldAtom) a).getGraph();
+            return Arrays.asList(VariableFieldAtom.class, ((VariableFieldAtom) a).getVar(), g.getHead(), g.getTail());
+        } else if (a instanceof RegionFieldAtom) {
+            FieldGraph g = ((RegionFieldAtom) a).getGraph();
+            return Arrays.asList(RegionFieldAtom.class, ((RegionFieldAtom) a).getRegion(), g.getHead(), g.getTail());
+        }
+        return null;
+    }
+
+    /**
+     * Merges two field atoms of the same shape.
+     */
+    static Atom mergeFieldAtoms(Atom a, Atom b) {
+        if (a instanceof VariableFieldAtom) {
+            VariableFieldAtom va = (VariableFieldAtom) a;
+            return VariableFieldAtom.of(va.getVar(), va.getGraph().union(((VariableFieldAtom) b).getGraph()));
+        } else {
+            RegionFieldAtom ra = (RegionFieldAtom) a;
+            return RegionFieldAtom.of(ra.getRegion(), ra.getGraph().union(((RegionFieldAtom) b).getGraph()));
+        }
+    }
+
+    /**
+     * Builder joining terms in place, so that a term is only created once all terms are joined.
+     * A builder must not be used after {@link #build()}.
+     */
+    public static final class Builder {
+        // The only term joined so far, as long as the atoms have not been copied
+        private Term single = BOTTOM;
+        private Set<Atom> atoms;
+
+        public Builder join(Term term) {
+            if (term.atoms.isEmpty() || term == single) {
+                return this;
+            }
+            if (atoms == null) {
+                if (single.atoms.isEmpty()) {
+                    single = term;
+                    return this;
+                }
+                if (single.atoms.containsAll(term.atoms)) {
+                    return this;
+                }
+                atoms = new HashSet<>(single.atoms);
+            }
+            atoms.addAll(term.atoms);
+            return this;
+        }
+
+        public Builder add(Atom atom) {
+            if (atoms == null) {
+                if (single.atoms.contains(atom)) {
+                    return this;
+                }
+                atoms = new HashSet<>(single.atoms);
+            }
+            atoms.add(atom);
+            return this;
+        }
+
+        public Term build() {
+            Term result = atoms == null ? single : of(atoms);
+            single = null;
+            atoms = null;
+            return result;
         }
-        return result;
     }
 
     public Set<Atom> getAtoms() {
@@ -93,7 +235,7 @@ public class Term {
 
     @Override
     public String toString() {
-        if (atoms == null || atoms.isEmpty()) {
+        if (atoms.isEmpty()) {
             return "⊥";
         } else {
             return "{" + atoms.stream().map(Atom::toString).collect(Collectors.joining(", ")) + "}";
@@ -105,11 +247,11 @@ public class Term {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Term term = (Term) o;
-        return atoms.equals(term.atoms);
+        return hash == term.hash && atoms.equals(term.atoms);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(atoms);
+        return hash;
     }
 }
@@ -1,45 +1,74 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import regiontypeinference.interproc.FieldTable;
 import regiontypeinference.intraproc.Environment;
-import regiontypeinference.region.AllocationSiteRegion;
 import regiontypeinference.region.Region;
-import regiontypeinference.region.SpecialRegion;
 import regiontypeinference.region.Regions;
 import soot.Local;
-import soot.SootClass;
-import soot.SootField;
 
 import java.util.*;
+import java.util.function.UnaryOperator;
 
 // TODO: check the operations with bottom
 
+/**
+ * Abstract transformations, mapping keys to terms.
+ * Transformations are immutable and interned, so that equal transformations are the same instance.
+ * The assignments are kept in a persistent map, so that a transformation derived from another one
+ * shares the assignments that have not changed.
+ * <p>
+ * Transformations never contain trivial assignments {@code x := {x}} and {@code r.G :> ⊥}.
+ */
 public class Transformation {
-    boolean bottom;
-    private Map<Key, Term> assigns;
+    private static final Interner<Transformation> INTERNER = Interners.newWeakInterner();
+    private static final Transformation BOTTOM = intern(null);
+    private static final Transformation IDENTITY = intern(PersistentMap.empty());
 
-    public Transformation(Map<Key, Term> map) {
+    private final boolean bottom;
+    private final PersistentMap<Key, Term> assigns;
+    private final int hash;
+
+    private Transformation(PersistentMap<Key, Term> map) {
         this.assigns = map;
         bottom = map == null;
+        hash = Objects.hash(bottom, assigns);
+    }
+
+    private static Transformation intern(PersistentMap<Key, Term> map) {
+        return INTERNER.intern(new Transformation(map));
     }
 
-    public Transformation(Transformation other) {
-        this.assigns = other.assigns;
-        this.bottom = other.bottom;
+    /**
+     * The transformation with the given assignments, leaving out the trivial ones.
+     */
+    public static Transformation of(Map<Key, Term> map) {
+        PersistentMap<Key, Term> result = PersistentMap.empty();
+        for (Map.Entry<Key, Term> entry : map.entrySet()) {
+            result = assign(result, entry.getKey(), entry.getValue());
+        }
+        return intern(result);
+    }
+
+    /**
+     * Assigns {@code term} to {@code key} in {@code map}, or removes {@code key} if the assignment is trivial.
+     */
+    private static PersistentMap<Key, Term> assign(PersistentMap<Key, Term> map, Key key, Term term) {
+        boolean trivial = key instanceof VariableAtom ? term.equals(Term.of((Atom) key)) : term.getAtoms().isEmpty();
+        return trivial ? map.minus(key) : map.plus(key, term);
     }
 
     public static Transformation bottom(){
-        return new Transformation((Map) null);
+        return BOTTOM;
     }
 
     public static Transformation identity(){
-        return new Transformation(new HashMap());
+        return IDENTITY;
     }
 
     public static Transformation singleton(Key key, Term term) {
-        Map map = new HashMap();
-        map.put(key, term);
-        return new Transformation(map);
+        return intern(assign(PersistentMap.empty(), key, term));
     }
 
     public boolean containsKey(Key key) {
@@ -51,15 +80,22 @@ public class Transformation {
 
     public Term get(Key key) {
         if (bottom) {
-            return new Term();
+            return Term.bottom();
         }
-        return assigns.getOrDefault(key, new Term());
+        return assigns.getOrDefault(key, Term.bottom());
     }
 
     public boolean isBottom() {
         return bottom;
     }
 
+    /**
+     * Returns the assignments of this transformation, which must not be bottom.
+     */
+    public Map<Key, Term> getAssigns() {
+        return assigns;
+    }
+
     /**
      * Concatenate with the transformation next on the right.
      * @param next
@@ -68,9 +104,10 @@ public class Transformation {
     public Transformation concat(Transformation next) {
         // TODO: concatenation with bottom?
         if (bottom) {
-            return new Transformation(next);
+            return next;
         }
-        Map<Key, Term> result = new HashMap();
+        // The assignments of next are kept unless they are overwritten, and joined otherwise
+        Builder result = new Builder(next);
         for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
             Key key = entry.getKey();
             Term updatedValue = entry.getValue().substitute(next);
@@ -79,33 +116,18 @@ public class Transformation {
                 result.put(key, updatedValue);
             } else if (key instanceof VariableFieldAtom) {
                 // cases x.G
-                VariableAtom va = new VariableAtom(((VariableFieldAtom) key).getVar());
+                VariableAtom va = VariableAtom.of(((VariableFieldAtom) key).getVar());
                 FieldGraph graph = ((VariableFieldAtom) key).getGraph();
                 Term term = next.get(va);
                 for (Atom a : term.getAtoms()) {
-                    Key newKey = (Key) a.concat(graph);
-                    Term value = updatedValue.join(result.getOrDefault(newKey, new Term()));
-                    result.put(newKey, value);
+                    result.join((Key) a.concat(graph), updatedValue);
                 }
             } else if (key instanceof RegionFieldAtom) {
                 // case r.G
-                Term value = updatedValue.join(result.getOrDefault(key, new Term()));
-                result.put(key, value);
-            }
-        }
-        for (Map.Entry<Key, Term> entry : next.assigns.entrySet()) {
-            Key key = entry.getKey();
-            Term value = entry.getValue();
-            if (result.containsKey(key)) {
-                if (! (key instanceof VariableAtom)) {
-                    Term joinedValue = result.get(key).join(value);
-                    result.put(key, joinedValue);
-                }
-            } else {
-                result.put(key, value);
+                result.join(key, updatedValue);
             }
         }
-        return createAfterCleanup(result);
+        return result.build();
     }
 
     public Transformation join(Transformation other) {
@@ -113,80 +135,174 @@ public class Transformation {
         //System.out.println("  Joining " + this + " and " + other);
 
         if (this.bottom) {
-            return new Transformation(other);
+            return other;
+        }
+        if (other.bottom || other == this) {
+            return this;
+        }
+        // Starting from the assignments of this, only the keys whose terms change are assigned
+        Builder result = new Builder(this);
+        for (Key key : this.assigns.keySet()) {
+            if (key instanceof VariableAtom && !other.assigns.containsKey(key)) {
+                result.join(key, Term.of((Atom) key));
+            }
+        }
+        for (Map.Entry<Key, Term> entry : other.assigns.entrySet()) {
+            Key key = entry.getKey();
+            result.join(key, entry.getValue());
+            if (key instanceof VariableAtom && !this.assigns.containsKey(key)) {
+                result.join(key, Term.of((Atom) key));
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * Whether this transformation is below {@code other} in the lattice of transformations,
+     * i.e. {@code this.join(other)} is {@code other}. A variable without assignment is assigned to itself,
+     * and any other key without assignment is assigned bottom.
+     */
+    public boolean leq(Transformation other) {
+        if (this == other || this.bottom) {
+            return true;
         }
         if (other.bottom) {
-            return new Transformation(this);
+            return false;
         }
-        Map<Key, Term> result = new HashMap();
         for (Map.Entry<Key, Term> entry : this.assigns.entrySet()) {
             Key key = entry.getKey();
-            if (other.containsKey(key)) {
-                Term term = entry.getValue().join(other.get(key));
-                result.put(key, term);
-            } else {
-                if (key instanceof VariableAtom) {
-                    Term term = entry.getValue().join(new Term((Atom) key));
-                    result.put(key, term);
-                } else {
-                    Term term = entry.getValue();
-                    result.put(key, term);
+            Term term = other.assigns.get(key);
+            if (term == null) {
+                // the assignment of this is not trivial, so it is only below x := {x}
+                if (!(key instanceof VariableAtom) || !entry.getValue().leq(Term.of((Atom) key))) {
+                    return false;
                 }
+            } else if (!entry.getValue().leq(term)) {
+                return false;
             }
         }
         for (Map.Entry<Key, Term> entry : other.assigns.entrySet()) {
             Key key = entry.getKey();
-            if (!this.assigns.containsKey(key)) {
-                if (key instanceof VariableAtom) {
-                    Term term = entry.getValue().join(new Term((Atom) key));
-                    result.put(key, term);
-                } else {
-                    Term term = entry.getValue();
-                    result.put(key, term);
-                }
+            if (key instanceof VariableAtom && !this.assigns.containsKey(key)
+                    && !entry.getValue().getAtoms().contains((Atom) key)) {
+                return false;
             }
         }
-        return createAfterCleanup(result);
+        return true;
     }
 
-    public static Transformation createAfterCleanup(Map<Key, Term> map) {
-        Map<Key, Term> result = new HashMap(map);
-        for (Map.Entry<Key, Term> entry : map.entrySet()) {
+    /**
+     * Replaces each region in the keys and terms of this transformation by its image under {@code f},
+     * joining the terms of keys that become equal.
+     */
+    public Transformation mapRegions(UnaryOperator<Region> f) {
+        if (bottom) {
+            return this;
+        }
+        Builder result = new Builder();
+        for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
+            Key key = (Key) Term.mapRegions((Atom) entry.getKey(), f);
+            result.join(key, entry.getValue().mapRegions(f));
+        }
+        return result.build();
+    }
+
+    /**
+     * Widening: the keys and the atoms of the terms are merged as in {@link Term#widen()},
+     * joining the terms of merged keys. The result over-approximates this transformation.
+     */
+    public Transformation widen() {
+        if (bottom) {
+            return this;
+        }
+        Map<Key, Term> result = new HashMap<>();
+        Map<List<Object>, Key> keysByShape = new HashMap<>();
+        for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
             Key key = entry.getKey();
-            Term rhs = entry.getValue();
-            if (key instanceof VariableAtom) {
-                Term lhs = new Term ((Atom) key);
-                if (lhs.equals(rhs)) {
-                    result.remove(key);
-                }
-            } else {
-                if (rhs.getAtoms().isEmpty()) {
-                    result.remove(key);
+            Term term = entry.getValue();
+            List<Object> shape = Term.shapeOf((Atom) key);
+            if (shape != null) {
+                Key other = keysByShape.get(shape);
+                if (other != null) {
+                    term = term.join(result.remove(other));
+                    key = (Key) Term.mergeFieldAtoms((Atom) other, (Atom) key);
                 }
+                keysByShape.put(shape, key);
             }
+            result.put(key, term);
         }
-        return new Transformation(result);
+        result.replaceAll((key, term) -> term.widen());
+        return of(result);
+    }
+
+    /**
+     * Builder updating the assignments of a transformation in place, so that the terms joined to a key
+     * are only combined into one term, and the transformation is only created, once all updates are done.
+     * A builder must not be used after {@link #build()}.
+     */
+    public static final class Builder {
+        private PersistentMap<Key, Term> base;
+        private final Map<Key, Term.Builder> updates = new HashMap<>();
+
+        /**
+         * A builder starting from the assignments of {@code trans}, which must not be bottom.
+         */
+        public Builder(Transformation trans) {
+            this.base = trans.assigns;
+        }
+
+        public Builder() {
+            this(IDENTITY);
+        }
+
+        /**
+         * Assigns {@code term} to {@code key}, replacing the current term.
+         */
+        public Builder put(Key key, Term term) {
+            updates.put(key, new Term.Builder().join(term));
+            return this;
+        }
+
+        /**
+         * Joins {@code term} to the current term of {@code key}.
+         */
+        public Builder join(Key key, Term term) {
+            Term.Builder builder = updates.get(key);
+            if (builder == null) {
+                builder = new Term.Builder().join(base.getOrDefault(key, Term.bottom()));
+                updates.put(key, builder);
+            }
+            builder.join(term);
+            return this;
+        }
+
+        public Transformation build() {
+            PersistentMap<Key, Term> result = base;
+            for (Map.Entry<Key, Term.Builder> entry : updates.entrySet()) {
+                result = assign(result, entry.getKey(), entry.getValue().build());
+            }
+            base = null;
+            updates.clear();
+            return intern(result);
+        }
+    }
+
+    public static Transformation createAfterCleanup(Map<Key, Term> map) {
+        return of(map);
     }
 
     public EnvironmentAndFieldTable instantiate() {
         return instantiate(new Environment(), new FieldTable());
     }
 
+    /**
+     * Instantiates this transformation with the given environment and field table.
+     * The field table is computed to a fixed point by an {@link Instantiation}; since the environment
+     * does not change with the field table, it is instantiated once with the resulting table.
+     */
     public EnvironmentAndFieldTable instantiate(Environment env, FieldTable ft) {
-        Environment oldEnv = new Environment(env);
-        FieldTable oldFT = new FieldTable(ft);
-        boolean stable = false;
-        while (!stable) {
-            Environment newEnv = envInstantiate(env, oldFT);
-            FieldTable newFT = fieldInstantiate(env, oldFT);
-            if (oldEnv.equals(newEnv) && oldFT.equals(newFT)) {
-                stable = true;
-            } else {
-                oldEnv = new Environment(newEnv);
-                oldFT = new FieldTable(newFT);
-            }
-        }
-        return new EnvironmentAndFieldTable(oldEnv, oldFT);
+        FieldTable fieldTable = new Instantiation(assigns, env, ft).compute();
+        return new EnvironmentAndFieldTable(envInstantiate(env, fieldTable), fieldTable);
     }
 
     private Environment envInstantiate(Environment env, FieldTable ft) {
@@ -207,126 +323,50 @@ public class Transformation {
         return updated;
     }
 
-    private FieldTable fieldInstantiate(Environment env, FieldTable ft) {
-        FieldTable updated = new FieldTable();
-        Set<FieldTable.Key> fields = getFields(getRegions(env, ft));
-        fields.addAll(ft.keySet());
-        for (FieldTable.Key key : fields){
-            Regions regions = Regions.fromSet(new HashSet());
-            if (ft.containsKey(key)) {
-                regions = regions.join(ft.get(key));
-            }
-            for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
-                if (entry.getKey() instanceof RegionFieldAtom) {
-                    RegionFieldAtom rfa = (RegionFieldAtom) entry.getKey();
-                    if (rfa.reachableFields(ft).contains(key)) {
-                        regions = regions.join(entry.getValue().instantiate(env,ft));
-                    }
-                } else if (entry.getKey() instanceof VariableFieldAtom) {
-                    VariableFieldAtom vfa = (VariableFieldAtom) entry.getKey();
-                    Local var = vfa.getVar();
-                    if (env.containsKey(var)) {
-                        for (Region r : env.get(var).toSet()) {
-                            RegionFieldAtom rfa = new RegionFieldAtom(r, vfa.getGraph());
-                            if (rfa.reachableFields(ft).contains(key)) {
-                                regions = regions.join(entry.getValue().instantiate(env,ft));
-                            }
-                        }
-                    }
-                }
-            }
-            if (regions.toSet().isEmpty()) {
-                regions = Regions.singleton(SpecialRegion.NULL_REGION);
-            }
-            updated.put(key, regions);
-        }
-        return updated;
-    }
-
-    private static Set<FieldTable.Key> getFields(Set<Region> regions) {
-        Set<FieldTable.Key> fields = new HashSet();
-        for (Region r : regions) {
-            if (r instanceof AllocationSiteRegion) {
-                SootClass c = ((AllocationSiteRegion) r).getSootClass();
-                for (SootField f : c.getFields()) {
-                    fields.add(new FieldTable.Key(r, f));
-                }
-            }
-        }
-        return fields;
-    }
-
-    private Set<Region> getRegions(Environment env, FieldTable ft) {
-        Set<Region> regions = new HashSet();
-        for (Key k : assigns.keySet()) {
-            if(k instanceof RegionFieldAtom) {
-                regions.add(((RegionFieldAtom) k).getRegion());
-            }
-        }
-        for (Term t : assigns.values()) {
-            for (Atom a : t.getAtoms()) {
-                if (a instanceof RegionAtom) {
-                    regions.add(((RegionAtom) a).getRegion());
-                } else if (a instanceof RegionFieldAtom) {
-                    regions.add(((RegionFieldAtom) a).getRegion());
-                }
-            }
-        }
-        for (Regions rs : env.values()) {
-            regions.addAll(rs.toSet());
-        }
-        for (Map.Entry<FieldTable.Key, Regions> entry : ft.entrySet()) {
-            regions.add(entry.getKey().getRegion());
-            regions.addAll(entry.getValue().toSet());
-        }
-        return regions;
-    }
-
     // TODO: why "_ -> \bot" is invalid?
 //    public boolean hasInvalidEntry() {
 //        return assigns.containsValue(new Term());
 //    }
 
+    /**
+     * Returns this transformation, since transformations are immutable.
+     */
     public Transformation copy() {
-        return new Transformation(new HashMap(assigns));
+        return this;
     }
 
     public Transformation removeLocals() {
-        Map<Key, Term> map = new HashMap<>();
+        PersistentMap<Key, Term> map = assigns;
         for(Key key : assigns.keySet()) {
-            if (! (key instanceof VariableAtom)) {
-                map.put(key, assigns.get(key));
+            if (key instanceof VariableAtom) {
+                map = map.minus(key);
             }
         }
-        return new Transformation(map);
+        return intern(map);
     }
 
     public Transformation removeLocals(Set<Local> toKeep) {
-        Map<Key, Term> map = new HashMap<>();
+        PersistentMap<Key, Term> map = assigns;
         for(Key key : assigns.keySet()) {
             if ((key instanceof VariableAtom)) {
-                if (toKeep.contains(((VariableAtom) key).getVar())) {
-                    map.put(key, assigns.get(key));
+                if (!toKeep.contains(((VariableAtom) key).getVar())) {
+                    map = map.minus(key);
                 }
-            } else {
-                map.put(key, assigns.get(key));
             }
         }
-        return new Transformation(map);
+        return intern(map);
     }
 
     public Transformation removeJimpleLocals() {
-        Map<Key, Term> map = new HashMap<>();
+        PersistentMap<Key, Term> map = assigns;
         for(Key key : assigns.keySet()) {
-            if (! (key instanceof VariableAtom)) {
-                map.put(key, assigns.get(key));
-            } else {
-                if (!((VariableAtom) key).getVar().getName().startsWith("$")) {
-                    map.put(key, assigns.get(key));
+            if (key instanceof VariableAtom) {
+                if (((VariableAtom) key).getVar().getName().startsWith("$")) {
+                    map = map.minus(key);
                 }
             }
         }
-        return new Transformation(map);
+        return intern(map);
     }
 
     @Override
@@ -334,12 +374,12 @@ public class Transformation {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Transformation that = (Transformation) o;
-        return bottom == that.bottom && Objects.equals(assigns, that.assigns);
+        return hash == that.hash && bottom == that.bottom && Objects.equals(assigns, that.assigns);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(bottom, assigns);
+        return hash;
     }
 
     @Override
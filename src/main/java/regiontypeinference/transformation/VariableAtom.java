@@ -1,29 +1,41 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import regiontypeinference.interproc.FieldTable;
 import regiontypeinference.intraproc.Environment;
 import regiontypeinference.region.Regions;
 import soot.Local;
 
-import java.util.HashSet;
 import java.util.Objects;
 
+/**
+ * Atom of a local variable. Atoms are immutable and interned, so that equal atoms are the same instance.
+ */
 public class VariableAtom implements Atom, Key {
-    private Local var;
+    private static final Interner<VariableAtom> INTERNER = Interners.newWeakInterner();
 
-    public VariableAtom(Local var) {
+    private final Local var;
+    private final int hash;
+
+    private VariableAtom(Local var) {
         this.var = var;
+        this.hash = Objects.hash(var);
+    }
+
+    public static VariableAtom of(Local var) {
+        return INTERNER.intern(new VariableAtom(var));
     }
 
     @Override
     public Regions instantiate(Environment env, FieldTable table) {
         // TODO: if env doesn't contain var?
-        return env.getOrDefault(var, Regions.fromSet(new HashSet()));
+        return env.getOrDefault(var, Regions.empty());
     }
 
     @Override
     public Atom concat(FieldGraph graph) {
-        return new VariableFieldAtom(var, graph);
+        return VariableFieldAtom.of(var, graph);
     }
 
     @Override
@@ -31,7 +43,7 @@ public class VariableAtom implements Atom, Key {
         if (trans.containsKey(this)) {
             return trans.get(this);
         }
-        return new Term(this);
+        return Term.of(this);
     }
 
     public Local getVar() {
@@ -43,13 +55,13 @@ public class VariableAtom implements Atom, Key {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         VariableAtom that = (VariableAtom) o;
-        return var.equals(that.var);
+        return hash == that.hash && var.equals(that.var);
         // return var.equivTo(that.var);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(var);
+        return hash;
     }
 
     @Override
@@ -1,5 +1,7 @@
 package regiontypeinference.transformation;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import regiontypeinference.interproc.FieldTable;
 import regiontypeinference.intraproc.Environment;
 import regiontypeinference.region.Region;
@@ -9,42 +11,53 @@ import soot.SootField;
 
 import java.util.*;
 
+/**
+ * Atom of the fields of a local variable along a field graph.
+ * Atoms are immutable and interned, so that equal atoms are the same instance.
+ */
 public class VariableFieldAtom implements Atom, Key {
-    private Local var;
-    private FieldGraph graph;
+    private static final Interner<VariableFieldAtom> INTERNER = Interners.newWeakInterner();
 
-    public VariableFieldAtom(Local var, FieldGraph graph) {
+    private final Local var;
+    private final FieldGraph graph;
+    private final int hash;
+
+    private VariableFieldAtom(Local var, FieldGraph graph) {
         this.var = var;
         this.graph = graph;
+        this.hash = Objects.hash(var, graph);
     }
 
-    public VariableFieldAtom(Local var, SootField field) {
-        this.var = var;
-        this.graph = new FieldGraph(field);
+    public static VariableFieldAtom of(Local var, FieldGraph graph) {
+        return INTERNER.intern(new VariableFieldAtom(var, graph));
+    }
+
+    public static VariableFieldAtom of(Local var, SootField field) {
+        return of(var, FieldGraph.of(field));
     }
 
     @Override
     public Regions instantiate(Environment env, FieldTable ft) {
-        Regions regions = Regions.fromSet(new HashSet());
-        for (Region r : env.getOrDefault(var, regions).toSet()){
-            RegionFieldAtom rfa = new RegionFieldAtom(r , graph);
-            regions = regions.join(rfa.instantiate(env, ft));
+        Regions.Builder regions = new Regions.Builder();
+        for (Region r : env.getOrDefault(var, Regions.empty()).toSet()){
+            RegionFieldAtom rfa = RegionFieldAtom.of(r, graph);
+            regions.join(rfa.instantiate(env, ft));
         }
-        return regions;
+        return regions.build();
     }
 
     @Override
     public Atom concat(FieldGraph graph) {
-        return new VariableFieldAtom(var, this.graph.concat(graph));
+        return of(var, this.graph.concat(graph));
     }
 
     @Override
     public Term substitute(Transformation trans) {
-        Key varKey = new VariableAtom(var);
+        Key varKey = VariableAtom.of(var);
         if (trans.containsKey(varKey)) {
             return trans.get(varKey).concat(graph);
         }
-        return new Term(this);
+        return Term.of(this);
     }
 
     public Local getVar() {
@@ -60,12 +73,12 @@ public class VariableFieldAtom implements Atom, Key {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         VariableFieldAtom that = (VariableFieldAtom) o;
-        return var.equals(that.var) && graph.equals(that.graph);
+        return hash == that.hash && var.equals(that.var) && graph == that.graph;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(var, graph);
+        return hash;
     }
 
     @Override
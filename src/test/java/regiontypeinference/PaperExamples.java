@@ -0,0 +1,63 @@
+package regiontypeinference;
+
+import regiontypeinference.interproc.CallingContext;
+import regiontypeinference.interproc.Location;
+import regiontypeinference.region.AllocationSiteRegion;
+import soot.*;
+import soot.jimple.NewExpr;
+import soot.jimple.Stmt;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The classes of the paper examples, loaded into one Scene for the tests.
+ */
+public final class PaperExamples {
+    private static final String CLASS_PATH = "build/classes/java/test/" + File.pathSeparator +
+            "build/classes/java/main/" + File.pathSeparator +
+            "lib/cos.jar" + File.pathSeparator +
+            "lib/j2ee.jar" + File.pathSeparator +
+            "lib/java2html.jar";
+
+    private static boolean loaded = false;
+
+    private PaperExamples() {
+    }
+
+    /**
+     * Loads the paper examples, unless they are loaded already.
+     */
+    public static synchronized void load() {
+        if (!loaded) {
+            G.reset();
+            TA.forClasses(CLASS_PATH, "testcases.paperexamples.*");
+            loaded = true;
+        }
+    }
+
+    public static SootClass getClass(String name) {
+        load();
+        return Scene.v().getSootClass("testcases.paperexamples." + name);
+    }
+
+    public static SootMethod getMethod(String className, String methodName) {
+        return getClass(className).getMethodByName(methodName);
+    }
+
+    /**
+     * Returns the regions of the allocation sites of the method in the given context, in the order of the body.
+     */
+    public static List<AllocationSiteRegion> allocations(SootMethod m, CallingContext ctx) {
+        List<AllocationSiteRegion> regions = new ArrayList<>();
+        for (Unit u : m.retrieveActiveBody().getUnits()) {
+            for (ValueBox box : u.getUseBoxes()) {
+                if (box.getValue() instanceof NewExpr) {
+                    regions.add(new AllocationSiteRegion(box.getValue(), ctx, new Location(m, (Stmt) u)));
+                }
+            }
+        }
+        return regions;
+    }
+}
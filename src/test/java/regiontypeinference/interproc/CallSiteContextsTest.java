@@ -0,0 +1,76 @@
+package regiontypeinference.interproc;
+
+import org.junit.Test;
+import regiontypeinference.PaperExamples;
+import regiontypeinference.policy.ABCPolicy;
+import regiontypeinference.region.Region;
+import regiontypeinference.transformation.Term;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+
+import static org.junit.Assert.assertEquals;
+
+public class CallSiteContextsTest {
+
+    private static InterProcTransAnalysis analyze(int threads, int maxContexts) {
+        InterProcTransAnalysis ana = new InterProcTransAnalysis(new ABCPolicy(), 2,
+                PaperExamples.getMethod("Contexts", "ring"));
+        ana.setPrintResult(false);
+        ana.setThreads(threads);
+        ana.setMaxContexts(maxContexts);
+        ana.analyze(40);
+        return ana;
+    }
+
+    private static TransAndTerm entry(InterProcTransAnalysis ana, String method) {
+        return ana.getTable().get(PaperExamples.getMethod("Contexts", method).makeRef());
+    }
+
+    private static String toString(InterProcTransAnalysis ana) {
+        StringBuilder sb = new StringBuilder();
+        for (String method : new String[]{"a", "b", "c", "d", "ring"}) {
+            sb.append(method).append(": ").append(entry(ana, method)).append("\n");
+        }
+        InterProcTransAnalysis.Result result = ana.getResult();
+        return sb.append(result.getOutputFieldTable()).append(" ").append(result.getOutputType()).toString();
+    }
+
+    /**
+     * Returns the call of make in the given method.
+     */
+    private static Location callOfMake(String method) {
+        SootMethod m = PaperExamples.getMethod("Contexts", method);
+        for (Unit u : m.retrieveActiveBody().getUnits()) {
+            Stmt s = (Stmt) u;
+            if (s.containsInvokeExpr() && s.getInvokeExpr().getMethod().getName().equals("make")) {
+                return new Location(m, s);
+            }
+        }
+        throw new AssertionError("no call of make in " + m);
+    }
+
+    @Test
+    public void keepsTheContextsOfTheFirstCallSites() {
+        SootMethod make = PaperExamples.getMethod("Contexts", "make");
+        CallingContext root = CallingContext.root(2);
+        InterProcTransAnalysis ana = analyze(1, 2);
+        // the calls in a and b come first in the order of the signatures of the callers
+        for (String method : new String[]{"a", "b"}) {
+            Region r = PaperExamples.allocations(make, root.enclose(callOfMake(method))).get(0);
+            assertEquals(Term.of(r), entry(ana, method).getTerm());
+        }
+        for (String method : new String[]{"c", "d"}) {
+            assertEquals(Term.of(PaperExamples.allocations(make, root).get(0)), entry(ana, method).getTerm());
+        }
+    }
+
+    @Test
+    public void keepsTheSameContextsWithThreads() {
+        // a, b, c and d are analysed in the same round, so their lookups of make are interleaved
+        String expected = toString(analyze(1, 2));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(expected, toString(analyze(4, 2)));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package regiontypeinference.interproc;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import regiontypeinference.PaperExamples;
+import regiontypeinference.region.*;
+import regiontypeinference.transformation.*;
+import soot.*;
+import soot.jimple.InvokeStmt;
+import soot.jimple.Stmt;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class SummaryFormatTest {
+    private static SootMethod f;
+    private static SootMethod foo;
+    private static Local x;
+    private static Local y;
+    private static SootField cf;
+    private static SootField next;
+
+    @BeforeClass
+    public static void setUp() {
+        f = PaperExamples.getMethod("RunningExample", "f");
+        foo = PaperExamples.getMethod("RunningExample", "foo");
+        Iterator<Local> locals = foo.retrieveActiveBody().getLocals().iterator();
+        locals.next();
+        x = locals.next();
+        y = locals.next();
+        cf = PaperExamples.getClass("RunningExample$C").getFieldByName("f");
+        next = PaperExamples.getClass("Node").getFieldByName("next");
+    }
+
+    private static List<Stmt> stmts(SootMethod m) {
+        List<Stmt> stmts = new ArrayList<>();
+        for (Unit u : m.retrieveActiveBody().getUnits()) {
+            stmts.add((Stmt) u);
+        }
+        return stmts;
+    }
+
+    private static Stmt call(SootMethod m) {
+        for (Stmt s : stmts(m)) {
+            if (s instanceof InvokeStmt && s.getInvokeExpr().getMethod().getName().equals("foo")) {
+                return s;
+            }
+        }
+        throw new AssertionError("no call in " + m);
+    }
+
+    private static TransAndTerm roundTrip(TransAndTerm tt) throws SummaryFormat.FormatException {
+        TransAndTerm result = null;
+        for (boolean widened : new boolean[]{false, true}) {
+            SummaryFormat writer = new SummaryFormat(Arrays.asList(f.retrieveActiveBody(), foo.retrieveActiveBody()));
+            String s = writer.write(tt, widened);
+            // a fresh format resolves all names in the scene again
+            SummaryFormat.Entry read = new SummaryFormat(Collections.emptyList()).readEntry(s);
+            assertEquals(widened, read.isWidened());
+            assertEquals(tt, read.getTransAndTerm());
+            assertEquals(s, writer.write(read.getTransAndTerm(), widened));
+            result = read.getTransAndTerm();
+        }
+        return result;
+    }
+
+    @Test
+    public void roundTripsAllAtomsAndRegions() throws SummaryFormat.FormatException {
+        CallingContext root = CallingContext.root(1);
+        Region a = PaperExamples.allocations(f, root).get(0);
+        Region b = PaperExamples.allocations(f, root).get(1);
+        Region c = PaperExamples.allocations(foo, root.push(f, call(f))).get(0);
+        FieldGraph single = FieldGraph.of(cf);
+        FieldGraph cyclic = FieldGraph.of(next, next,
+                Collections.singleton(new FieldGraph.Edge(next, next)));
+
+        Map<Key, Term> assigns = new HashMap<>();
+        assigns.put(VariableAtom.of(x), Term.of(VariableFieldAtom.of(y, single)));
+        assigns.put(VariableAtom.of(y), Term.of(c));
+        assigns.put(RegionFieldAtom.of(c, single), Term.of(new HashSet<>(Arrays.asList(
+                VariableAtom.of(x), RegionFieldAtom.of(a, cyclic)))));
+        assigns.put(VariableFieldAtom.of(x, cyclic), Term.of(new HashSet<>(Arrays.asList(
+                RegionAtom.of(new ExceptionRegion(null)),
+                RegionAtom.of(new ExceptionRegion(PaperExamples.getClass("Node"))),
+                RegionAtom.of(new InputRegion(2)),
+                RegionAtom.of(SpecialRegion.NULL_REGION),
+                RegionAtom.of(b)))));
+        TransAndTerm tt = new TransAndTerm(Transformation.of(assigns),
+                Term.of(new HashSet<>(Arrays.asList(VariableAtom.of(y), RegionAtom.of(SpecialRegion.STATIC_REGION)))));
+        assertEquals(tt, roundTrip(tt));
+    }
+
+    @Test
+    public void roundTripsBottom() throws SummaryFormat.FormatException {
+        TransAndTerm tt = new TransAndTerm(Transformation.bottom(), Term.bottom());
+        assertEquals(tt, roundTrip(tt));
+    }
+
+    @Test(expected = SummaryFormat.FormatException.class)
+    public void rejectsTruncatedInput() throws SummaryFormat.FormatException {
+        new SummaryFormat(Collections.emptyList()).read("(tt (trans (");
+    }
+
+    @Test(expected = SummaryFormat.FormatException.class)
+    public void rejectsUnknownMarker() throws SummaryFormat.FormatException {
+        new SummaryFormat(Collections.emptyList()).read("(tt (bottom) (term) narrowed)");
+    }
+
+    @Test(expected = SummaryFormat.FormatException.class)
+    public void rejectsUnknownAtom() throws SummaryFormat.FormatException {
+        new SummaryFormat(Collections.emptyList()).read("(tt (bottom) (term (foo)))");
+    }
+
+    @Test(expected = SummaryFormat.FormatException.class)
+    public void rejectsUnknownMethod() throws SummaryFormat.FormatException {
+        new SummaryFormat(Collections.emptyList())
+                .read("(tt (bottom) (term (var \"<testcases.paperexamples.Node: void none()>\" \"x\")))");
+    }
+
+    @Test(expected = SummaryFormat.FormatException.class)
+    public void rejectsStatementWithoutAllocation() throws SummaryFormat.FormatException {
+        new SummaryFormat(Collections.emptyList()).read("(tt (bottom) (term (region (alloc (ctx 1) (loc \""
+                + f.getSignature() + "\" 0)))))");
+    }
+
+    @Test(expected = SummaryFormat.FormatException.class)
+    public void rejectsNegativeContextDepth() throws SummaryFormat.FormatException {
+        Region r = PaperExamples.allocations(foo, CallingContext.root(0)).get(0);
+        String s = new SummaryFormat(Collections.emptyList())
+                .write(new TransAndTerm(Transformation.identity(), Term.of(r)));
+        new SummaryFormat(Collections.emptyList()).read(s.replace("(ctx 0", "(ctx -1"));
+    }
+}
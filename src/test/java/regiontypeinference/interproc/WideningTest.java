@@ -0,0 +1,60 @@
+package regiontypeinference.interproc;
+
+import org.junit.Test;
+import regiontypeinference.PaperExamples;
+import regiontypeinference.policy.ABCPolicy;
+import soot.SootMethod;
+import soot.SootMethodRef;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WideningTest {
+
+    private static InterProcTransAnalysis analyze(SootMethod m, int threads, int maximumIteration) {
+        InterProcTransAnalysis ana = new InterProcTransAnalysis(new ABCPolicy(), 0, m);
+        ana.setPrintResult(false);
+        ana.setThreads(threads);
+        ana.analyze(maximumIteration);
+        return ana;
+    }
+
+    @Test
+    public void convergesByWideningAtTheMaximumIteration() {
+        SootMethod last = PaperExamples.getMethod("Node", "last");
+        SootMethodRef ref = last.makeRef();
+        InterProcTransAnalysis precise = analyze(last, 1, 40);
+        assertEquals(Collections.emptySet(), precise.getResult().getWidenedEntries());
+        for (int threads : new int[]{1, 4}) {
+            // without a widening delay, the entry of last is only widened once it reaches the maximum iteration,
+            // so it does not converge within two iterations otherwise
+            InterProcTransAnalysis widened = analyze(last, threads, 2);
+            assertEquals(Collections.singleton(ref), widened.getResult().getWidenedEntries());
+            assertTrue(widened.getTable().isWidened(ref));
+            // the field atoms this.next and this.next(next)*next are merged
+            assertEquals(precise.getTable().get(ref).widen(), widened.getTable().get(ref));
+        }
+    }
+
+    @Test
+    public void widensTheCalleesOfTheEntryMethod() {
+        SootMethodRef last = PaperExamples.getMethod("Node", "last").makeRef();
+        SootMethod cyclic = PaperExamples.getMethod("Test", "cyclic");
+        InterProcTransAnalysis widened = analyze(cyclic, 1, 1);
+        assertEquals(Collections.singleton(last), widened.getResult().getWidenedEntries());
+        InterProcTransAnalysis precise = analyze(cyclic, 1, 40);
+        assertTrue(widened.getResult().getOutputType().toSet()
+                .containsAll(precise.getResult().getOutputType().toSet()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDelayThatCannotFireBeforeTheMaximumIteration() {
+        InterProcTransAnalysis ana = new InterProcTransAnalysis(new ABCPolicy(), 0,
+                PaperExamples.getMethod("Node", "last"));
+        ana.setPrintResult(false);
+        ana.setWideningDelay(2);
+        ana.analyze(2);
+    }
+}
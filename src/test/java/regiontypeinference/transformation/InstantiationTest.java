@@ -0,0 +1,250 @@
+package regiontypeinference.transformation;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import regiontypeinference.PaperExamples;
+import regiontypeinference.interproc.CallingContext;
+import regiontypeinference.interproc.FieldTable;
+import regiontypeinference.intraproc.Environment;
+import regiontypeinference.region.*;
+import soot.Local;
+import soot.SootField;
+import soot.SootMethod;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InstantiationTest {
+    static final List<Region> regions = new ArrayList<>();
+    static final List<Local> locals = new ArrayList<>();
+    private static final List<SootField> fields = new ArrayList<>();
+    private static Region a, b, c;
+    private static SootField next;
+
+    @BeforeClass
+    public static void setUp() {
+        // also called by the other tests using the random atoms
+        if (!regions.isEmpty()) {
+            return;
+        }
+        CallingContext root = CallingContext.root(0);
+        for (String[] m : new String[][]{{"Test", "linear"}, {"Test", "cyclic"}, {"RunningExample", "f"}}) {
+            SootMethod method = PaperExamples.getMethod(m[0], m[1]);
+            regions.addAll(PaperExamples.allocations(method, root));
+            locals.addAll(method.retrieveActiveBody().getLocals());
+        }
+        // the nodes of linear and cyclic, then C, D and D of f
+        a = regions.get(0);
+        b = regions.get(1);
+        c = regions.get(2);
+        next = PaperExamples.getClass("Node").getFieldByName("next");
+        fields.add(next);
+        fields.add(PaperExamples.getClass("RunningExample$C").getFieldByName("f"));
+    }
+
+    /**
+     * Instantiates the transformation by evaluating all assignments on the table of the previous
+     * round until the table is stable, as {@link Instantiation} does semi-naively.
+     * @param rounds incremented by the number of rounds
+     */
+    private static FieldTable naive(Map<Key, Term> assigns, Environment env, FieldTable ft, int[] rounds) {
+        FieldTable table = new FieldTable(ft);
+        while (true) {
+            rounds[0]++;
+            Set<Region> rs = new HashSet<>();
+            for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
+                if (entry.getKey() instanceof RegionFieldAtom) {
+                    rs.add(((RegionFieldAtom) entry.getKey()).getRegion());
+                }
+                for (Atom atom : entry.getValue().getAtoms()) {
+                    if (atom instanceof RegionAtom) {
+                        rs.add(((RegionAtom) atom).getRegion());
+                    } else if (atom instanceof RegionFieldAtom) {
+                        rs.add(((RegionFieldAtom) atom).getRegion());
+                    }
+                }
+            }
+            env.values().forEach(value -> rs.addAll(value.toSet()));
+            for (Map.Entry<FieldTable.Key, Regions> entry : table.entrySet()) {
+                rs.add(entry.getKey().getRegion());
+                rs.addAll(entry.getValue().toSet());
+            }
+            Set<FieldTable.Key> keys = new HashSet<>(table.keySet());
+            for (Region r : rs) {
+                if (r instanceof AllocationSiteRegion) {
+                    for (SootField f : ((AllocationSiteRegion) r).getSootClass().getFields()) {
+                        keys.add(new FieldTable.Key(r, f));
+                    }
+                }
+            }
+
+            Map<FieldTable.Key, Regions> assigned = new HashMap<>();
+            for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
+                List<RegionFieldAtom> targets = new ArrayList<>();
+                if (entry.getKey() instanceof RegionFieldAtom) {
+                    targets.add((RegionFieldAtom) entry.getKey());
+                } else if (entry.getKey() instanceof VariableFieldAtom) {
+                    VariableFieldAtom vfa = (VariableFieldAtom) entry.getKey();
+                    for (Region r : env.getOrDefault(vfa.getVar(), Regions.empty()).toSet()) {
+                        targets.add(RegionFieldAtom.of(r, vfa.getGraph()));
+                    }
+                }
+                Regions value = entry.getValue().instantiate(env, table);
+                for (RegionFieldAtom target : targets) {
+                    for (FieldTable.Key key : target.reachableFields(table)) {
+                        if (keys.contains(key)) {
+                            assigned.merge(key, value, Regions::join);
+                        }
+                    }
+                }
+            }
+
+            FieldTable result = new FieldTable();
+            for (FieldTable.Key key : keys) {
+                Regions value = table.getOrDefault(key, Regions.empty())
+                        .join(assigned.getOrDefault(key, Regions.empty()));
+                result.put(key, value.isEmpty() ? Regions.singleton(SpecialRegion.NULL_REGION) : value);
+            }
+            if (result.equals(table)) {
+                return table;
+            }
+            table = result;
+        }
+    }
+
+    private static Environment naiveEnvironment(Map<Key, Term> assigns, Environment env, FieldTable ft) {
+        Environment result = new Environment(env);
+        for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
+            if (entry.getKey() instanceof VariableAtom) {
+                result.put(((VariableAtom) entry.getKey()).getVar(), entry.getValue().instantiate(env, ft));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that the transformation is instantiated as by the naive fixed point.
+     * @return the number of rounds of the naive fixed point
+     */
+    private static int assertInstantiatedAsNaive(Transformation trans, Environment env, FieldTable ft) {
+        Environment envBefore = new Environment(env);
+        FieldTable ftBefore = new FieldTable(ft);
+        int[] rounds = {0};
+        FieldTable expected = naive(trans.getAssigns(), env, ft, rounds);
+        Transformation.EnvironmentAndFieldTable actual = trans.instantiate(env, ft);
+        assertEquals(expected, actual.getFieldTable());
+        assertEquals(naiveEnvironment(trans.getAssigns(), env, expected), actual.getEnvironment());
+        // the arguments are not changed
+        assertEquals(envBefore, env);
+        assertEquals(ftBefore, ft);
+        return rounds[0];
+    }
+
+    static <T> T pick(Random random, List<T> list) {
+        return list.get(random.nextInt(list.size()));
+    }
+
+    static FieldGraph randomGraph(Random random) {
+        Set<FieldGraph.Edge> edges = new HashSet<>();
+        for (SootField s : fields) {
+            for (SootField t : fields) {
+                if (random.nextInt(3) == 0) {
+                    edges.add(new FieldGraph.Edge(s, t));
+                }
+            }
+        }
+        return FieldGraph.of(pick(random, fields), pick(random, fields), edges);
+    }
+
+    static Regions randomRegions(Random random, int bound) {
+        Set<Region> rs = new HashSet<>();
+        for (int i = random.nextInt(bound); i > 0; i--) {
+            rs.add(pick(random, regions));
+        }
+        return Regions.fromSet(rs);
+    }
+
+    static Atom randomAtom(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return RegionAtom.of(pick(random, regions));
+            case 1:
+                return RegionFieldAtom.of(pick(random, regions), randomGraph(random));
+            case 2:
+                return VariableFieldAtom.of(pick(random, locals), randomGraph(random));
+            default:
+                return VariableAtom.of(pick(random, locals));
+        }
+    }
+
+    @Test
+    public void agreesWithNaiveFixedPointOnRandomTransformations() {
+        Random random = new Random(16);
+        int laterRounds = 0;
+        for (int i = 0; i < 1000; i++) {
+            Map<Key, Term> assigns = new HashMap<>();
+            for (int n = random.nextInt(8); n > 0; n--) {
+                Set<Atom> atoms = new HashSet<>();
+                for (int m = 1 + random.nextInt(3); m > 0; m--) {
+                    atoms.add(randomAtom(random));
+                }
+                Atom key = randomAtom(random);
+                if (key instanceof RegionAtom) {
+                    key = RegionFieldAtom.of(((RegionAtom) key).getRegion(), randomGraph(random));
+                }
+                assigns.put((Key) key, Term.of(atoms));
+            }
+            Environment env = new Environment();
+            for (Local l : locals) {
+                if (random.nextBoolean()) {
+                    env.put(l, randomRegions(random, 3));
+                }
+            }
+            FieldTable ft = new FieldTable();
+            for (int n = random.nextInt(5); n > 0; n--) {
+                Region r = pick(random, regions.subList(0, 3));
+                ft.put(new FieldTable.Key(r, next), randomRegions(random, 3));
+            }
+            if (assertInstantiatedAsNaive(Transformation.of(assigns), env, ft) > 2) {
+                laterRounds++;
+            }
+        }
+        // the table of many transformations only becomes stable after some rounds
+        assertTrue(laterRounds > 100);
+    }
+
+    @Test
+    public void agreesWithNaiveFixedPointOnCyclicFieldGraphs() {
+        FieldGraph nextStar = FieldGraph.of(next, next, Collections.singleton(new FieldGraph.Edge(next, next)));
+        // a and b point to each other
+        FieldTable ft = new FieldTable();
+        ft.put(new FieldTable.Key(a, next), Regions.singleton(b));
+        ft.put(new FieldTable.Key(b, next), Regions.singleton(a));
+        Environment env = new Environment();
+        env.put(locals.get(0), Regions.singleton(a));
+        Map<Key, Term> assigns = new HashMap<>();
+        // the fields reachable from a along next* get c, and c.next gets all of them
+        assigns.put(RegionFieldAtom.of(a, nextStar), Term.of(c));
+        assigns.put(RegionFieldAtom.of(c, next), Term.of(RegionFieldAtom.of(a, nextStar)));
+        assigns.put(VariableFieldAtom.of(locals.get(0), nextStar), Term.of(VariableFieldAtom.of(locals.get(0), next)));
+        assigns.put(VariableAtom.of(locals.get(1)), Term.of(VariableFieldAtom.of(locals.get(0), nextStar)));
+        assertInstantiatedAsNaive(Transformation.of(assigns), env, ft);
+    }
+
+    @Test
+    public void agreesWithNaiveFixedPointOnRegionsFoundInLaterRounds() {
+        // c is only stored into a.next in the first round, which makes c.next a field of the table,
+        // and c.next only gets b in the following round, after which b.next is added as well
+        Map<Key, Term> assigns = new HashMap<>();
+        assigns.put(RegionFieldAtom.of(a, next), Term.of(c));
+        assigns.put(VariableFieldAtom.of(locals.get(0), next), Term.of(RegionFieldAtom.of(a, next)));
+        assigns.put(RegionFieldAtom.of(c, next), Term.of(VariableFieldAtom.of(locals.get(1), next)));
+        Environment env = new Environment();
+        env.put(locals.get(0), Regions.singleton(c));
+        env.put(locals.get(1), Regions.singleton(a));
+        int rounds = assertInstantiatedAsNaive(Transformation.of(assigns), env, new FieldTable());
+        assertTrue(rounds > 2);
+    }
+}
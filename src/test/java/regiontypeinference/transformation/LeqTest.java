@@ -0,0 +1,133 @@
+package regiontypeinference.transformation;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import regiontypeinference.interproc.TransAndTerm;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the orders agree with the joins, i.e. that {@code a.leq(b)} holds exactly if
+ * {@code a.join(b)} equals {@code b}, on random transformations built from the atoms of
+ * {@link InstantiationTest}.
+ */
+public class LeqTest {
+    // Number of pairs for which leq holds, and for which it does not
+    private final int[] outcomes = new int[2];
+
+    @BeforeClass
+    public static void setUp() {
+        InstantiationTest.setUp();
+    }
+
+    private void assertLeqAgreesWithJoin(Term a, Term b) {
+        assertEquals(a + " <= " + b, a.leq(b), a.join(b).equals(b));
+    }
+
+    private void assertLeqAgreesWithJoin(Transformation a, Transformation b) {
+        boolean leq = a.leq(b);
+        assertEquals(a + " <= " + b, leq, a.join(b).equals(b));
+        outcomes[leq ? 1 : 0]++;
+    }
+
+    private void assertLeqAgreesWithJoin(TransAndTerm a, TransAndTerm b) {
+        assertEquals(a + " <= " + b, a.leq(b), a.join(b).equals(b));
+    }
+
+    /**
+     * Returns a term of up to three atoms of the pool.
+     */
+    private static Term randomTerm(Random random, List<Atom> pool) {
+        Set<Atom> atoms = new HashSet<>();
+        for (int n = random.nextInt(4); n > 0; n--) {
+            atoms.add(InstantiationTest.pick(random, pool));
+        }
+        return Term.of(atoms);
+    }
+
+    /**
+     * Returns a copy of the assignments in which each key is kept, dropped, or assigned
+     * a smaller, larger or other term, and some keys of {@code keys} are added.
+     */
+    private static Map<Key, Term> vary(Random random, Map<Key, Term> assigns, List<Key> keys, List<Atom> pool) {
+        Map<Key, Term> result = new HashMap<>();
+        for (Map.Entry<Key, Term> entry : assigns.entrySet()) {
+            Set<Atom> atoms = new HashSet<>(entry.getValue().getAtoms());
+            switch (random.nextInt(5)) {
+                case 0:
+                    continue;
+                case 1:
+                    atoms.remove(InstantiationTest.pick(random, pool));
+                    break;
+                case 2:
+                    atoms.add(InstantiationTest.pick(random, pool));
+                    break;
+                case 3:
+                    atoms = randomTerm(random, pool).getAtoms();
+                    break;
+                default:
+            }
+            result.put(entry.getKey(), Term.of(atoms));
+        }
+        for (Key key : keys) {
+            if (!result.containsKey(key) && random.nextInt(4) == 0) {
+                result.put(key, randomTerm(random, pool));
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void leqAgreesWithJoin() {
+        Random random = new Random(18);
+        for (int i = 0; i < 5000; i++) {
+            // few keys and atoms, so that the two sides often share them
+            List<Key> keys = new ArrayList<>();
+            List<Atom> pool = new ArrayList<>();
+            for (int n = 0; n < 2; n++) {
+                VariableAtom var = VariableAtom.of(InstantiationTest.pick(random, InstantiationTest.locals));
+                keys.add(var);
+                pool.add(var);
+            }
+            keys.add(RegionFieldAtom.of(InstantiationTest.pick(random, InstantiationTest.regions),
+                    InstantiationTest.randomGraph(random)));
+            keys.add(VariableFieldAtom.of(InstantiationTest.pick(random, InstantiationTest.locals),
+                    InstantiationTest.randomGraph(random)));
+            for (int n = 0; n < 3; n++) {
+                pool.add(InstantiationTest.randomAtom(random));
+            }
+            pool.add(RegionFieldAtom.of(InstantiationTest.pick(random, InstantiationTest.regions),
+                    InstantiationTest.randomGraph(random)));
+            pool.add((Atom) keys.get(2));
+
+            Map<Key, Term> assigns = new HashMap<>();
+            for (Key key : keys) {
+                if (random.nextBoolean()) {
+                    assigns.put(key, randomTerm(random, pool));
+                }
+            }
+            Map<Key, Term> varied = vary(random, assigns, keys, pool);
+            Transformation a = random.nextInt(10) == 0 ? Transformation.bottom() : Transformation.of(assigns);
+            Transformation b = random.nextInt(10) == 0 ? Transformation.bottom() : Transformation.of(varied);
+            Term s = randomTerm(random, pool);
+            Term t = random.nextBoolean() ? s.join(randomTerm(random, pool)) : randomTerm(random, pool);
+
+            assertLeqAgreesWithJoin(s, t);
+            assertLeqAgreesWithJoin(t, s);
+            assertLeqAgreesWithJoin(a, b);
+            assertLeqAgreesWithJoin(b, a);
+            assertLeqAgreesWithJoin(a, a.join(b));
+            assertLeqAgreesWithJoin(new TransAndTerm(a, s), new TransAndTerm(b, t));
+            assertLeqAgreesWithJoin(new TransAndTerm(b, t), new TransAndTerm(a, s));
+            for (Key key : keys) {
+                assertLeqAgreesWithJoin(a.get(key), b.get(key));
+            }
+        }
+        // both outcomes are common
+        assertTrue(outcomes[0] > 1000);
+        assertTrue(outcomes[1] > 1000);
+    }
+}
@@ -0,0 +1,204 @@
+package regiontypeinference.transformation;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PersistentMapTest {
+
+    /**
+     * Key with a given hash code, so that the keys can be made to collide in some or all bits.
+     */
+    private static final class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns a key whose hash is {@code spread} after {@link PersistentMap} has spread it.
+         */
+        static Key spreadTo(int id, int spread) {
+            return new Key(id, (spread & 0xFFFF0000) | ((spread ^ (spread >>> 16)) & 0xFFFF));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && id == ((Key) o).id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return "k" + id + "#" + Integer.toHexString(hash);
+        }
+    }
+
+    private static List<Key> keys(int n) {
+        List<Key> keys = new ArrayList<>();
+        for (int id = 0; id < n; id++) {
+            switch (id % 4) {
+                case 0:
+                    // spread over the whole trie
+                    keys.add(new Key(id, id * 0x9E3779B9));
+                    break;
+                case 1:
+                    // all hashes equal
+                    keys.add(new Key(id, 42));
+                    break;
+                case 2:
+                    // equal but in the last two bits, which are only used at the deepest level
+                    keys.add(Key.spreadTo(id, ((id / 4) % 4) << 30 | 0x0ABCDEF));
+                    break;
+                default:
+                    // equal in the first two levels
+                    keys.add(Key.spreadTo(id, (id / 4) << 10 | 0x2A5));
+            }
+        }
+        return keys;
+    }
+
+    private static void assertSameMap(Map<Key, Integer> expected, PersistentMap<Key, Integer> actual,
+                                      List<Key> keys) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+        for (Key k : keys) {
+            assertEquals(expected.get(k), actual.get(k));
+            assertEquals(expected.containsKey(k), actual.containsKey(k));
+        }
+        Map<Key, Integer> iterated = new HashMap<>();
+        for (Map.Entry<Key, Integer> entry : actual.entrySet()) {
+            assertNull("duplicate key " + entry.getKey(), iterated.put(entry.getKey(), entry.getValue()));
+        }
+        assertEquals(expected, iterated);
+        assertEquals(expected, actual);
+        assertEquals(actual, expected);
+        assertEquals(expected.hashCode(), actual.hashCode());
+    }
+
+    @Test
+    public void behavesLikeHashMap() {
+        Random random = new Random(20);
+        List<Key> keys = keys(200);
+        Map<Key, Integer> expected = new HashMap<>();
+        PersistentMap<Key, Integer> actual = PersistentMap.empty();
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<>();
+        List<PersistentMap<Key, Integer>> versions = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            Key k = keys.get(random.nextInt(keys.size()));
+            // grow and shrink the map in phases, so that it is emptied and filled again
+            boolean grow = (i / 2000) % 2 == 0;
+            if (random.nextInt(10) < (grow ? 7 : 2)) {
+                Integer v = random.nextInt(3);
+                PersistentMap<Key, Integer> next = actual.plus(k, v);
+                if (v.equals(expected.get(k))) {
+                    assertSame(actual, next);
+                }
+                expected.put(k, v);
+                actual = next;
+            } else {
+                PersistentMap<Key, Integer> next = actual.minus(k);
+                if (!expected.containsKey(k)) {
+                    assertSame(actual, next);
+                }
+                expected.remove(k);
+                actual = next;
+            }
+            assertSameMap(expected, actual, keys);
+            if (i % 500 == 0) {
+                expectedVersions.add(new HashMap<>(expected));
+                versions.add(actual);
+            }
+        }
+        // the earlier versions are not changed by the later ones
+        for (int i = 0; i < versions.size(); i++) {
+            assertSameMap(expectedVersions.get(i), versions.get(i), keys);
+        }
+    }
+
+    @Test
+    public void equalMapsAreEqualRegardlessOfHistory() {
+        Random random = new Random(13);
+        List<Key> keys = keys(120);
+        for (int round = 0; round < 200; round++) {
+            Map<Key, Integer> target = new HashMap<>();
+            for (Key k : keys) {
+                if (random.nextInt(4) == 0) {
+                    target.put(k, random.nextInt(2));
+                }
+            }
+            // insert the entries in a random order
+            List<Key> order = new ArrayList<>(target.keySet());
+            Collections.shuffle(order, random);
+            PersistentMap<Key, Integer> direct = PersistentMap.empty();
+            for (Key k : order) {
+                direct = direct.plus(k, target.get(k));
+            }
+            // insert all keys with other values and remove the ones not in the target, so that nodes collapse
+            PersistentMap<Key, Integer> collapsed = PersistentMap.empty();
+            for (Key k : keys) {
+                collapsed = collapsed.plus(k, 7);
+            }
+            List<Key> shuffled = new ArrayList<>(keys);
+            Collections.shuffle(shuffled, random);
+            for (Key k : shuffled) {
+                collapsed = target.containsKey(k) ? collapsed.plus(k, target.get(k)) : collapsed.minus(k);
+            }
+            assertSameMap(target, direct, keys);
+            assertSameMap(target, collapsed, keys);
+            assertEquals(direct, collapsed);
+            assertEquals(collapsed, direct);
+            assertEquals(direct.hashCode(), collapsed.hashCode());
+            if (!target.isEmpty()) {
+                Key k = order.get(0);
+                PersistentMap<Key, Integer> changed = collapsed.plus(k, target.get(k) + 1);
+                assertNotEquals(direct, changed);
+                assertNotEquals(changed, direct);
+                assertNotEquals(direct, collapsed.minus(k));
+            }
+        }
+    }
+
+    @Test
+    public void removingAllKeysLeavesTheEmptyMap() {
+        List<Key> keys = keys(64);
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        for (Key k : keys) {
+            map = map.plus(k, k.id);
+        }
+        Collections.reverse(keys);
+        for (Key k : keys) {
+            map = map.minus(k);
+        }
+        assertEquals(PersistentMap.<Key, Integer>empty(), map);
+        assertEquals(Collections.emptyMap(), map);
+        assertEquals(0, map.hashCode());
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void copiesOtherMaps() {
+        Map<Key, Integer> expected = new HashMap<>();
+        List<Key> keys = keys(50);
+        for (Key k : keys) {
+            expected.put(k, k.id % 5);
+        }
+        PersistentMap<Key, Integer> copy = PersistentMap.copyOf(expected);
+        assertSameMap(expected, copy, keys);
+        assertSame(copy, PersistentMap.copyOf(copy));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValues() {
+        PersistentMap.<Key, Integer>empty().plus(new Key(0, 0), null);
+    }
+}
@@ -0,0 +1,38 @@
+package testcases.paperexamples;
+
+class Contexts {
+
+    Contexts next;
+
+    static Contexts make() {
+        return new Contexts();
+    }
+
+    static Contexts a() {
+        return make();
+    }
+
+    static Contexts b() {
+        return make();
+    }
+
+    static Contexts c() {
+        return make();
+    }
+
+    static Contexts d() {
+        return make();
+    }
+
+    Contexts ring() {
+        Contexts a = a();
+        Contexts b = b();
+        Contexts c = c();
+        Contexts d = d();
+        a.next = b;
+        b.next = c;
+        c.next = d;
+        d.next = a;
+        return a;
+    }
+}